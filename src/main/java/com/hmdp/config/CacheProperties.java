@@ -0,0 +1,42 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CachePolicy;
+import com.hmdp.utils.CacheStrategy;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 缓存策略配置，对应application.yaml中的hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheProperties {
+    /**
+     * 默认策略
+     */
+    private CachePolicy defaults = defaultPolicy();
+    /**
+     * key前缀 -> 策略，按最长前缀匹配
+     */
+    private Map<String, CachePolicy> policies = new LinkedHashMap<>();
+
+    private static CachePolicy defaultPolicy() {
+        CachePolicy policy = new CachePolicy();
+        policy.setStrategy(CacheStrategy.PASS_THROUGH);
+        policy.setTtl(Duration.ofMinutes(30));
+        policy.setJitter(Duration.ZERO);
+        policy.setNullTtl(Duration.ofMinutes(2));
+        policy.setL1(false);
+        policy.setL1Ttl(Duration.ofSeconds(5));
+        policy.setL1Size(10000);
+        policy.setCodec(CacheCodec.JSON);
+        return policy;
+    }
+}
@@ -2,8 +2,12 @@ package com.hmdp.config;
 
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.interceptor.UvInterceptor;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedLoginToken;
+import com.hmdp.utils.UvRecorder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -12,7 +16,17 @@ import javax.annotation.Resource;
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedLoginToken signedLoginToken;
+
+    @Resource
+    private UvRecorder uvRecorder;
+
+    //登录令牌：redis / signed
+    @Value("${hmdp.login.mode:redis}")
+    private String loginMode;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -25,8 +39,16 @@ public class MvcConfig implements WebMvcConfigurer {
                          "/shop-type/**",
                          "/voucher/**",
                          "/upload/**",
-                         "/blog/hot"
-                 ).order(1);
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
+                         "/blog/hot",
+                         "/blog/{id:\\d+}",
+                         "/blog/likes/**",
+                         "/blog-comments/of/**",
+                         "/blog-comments/*/replies",
+                         "/follow/count/**"
+                 ).order(2);
+        //全站访客统计，在登录拦截之前记录，未登录被拦截的访问也计入
+        registry.addInterceptor(new UvInterceptor(uvRecorder)).addPathPatterns("/**").order(1);
+        registry.addInterceptor(new RefreshTokenInterceptor(
+                "signed".equals(loginMode) ? signedLoginToken::verify : loginSessionCache::get)).addPathPatterns("/**").order(0);
     }
 }
@@ -1,15 +1,14 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UvRecorder;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 
 /**
  * <p>
@@ -26,14 +25,22 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private UvRecorder uvRecorder;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-        return shopService.queryShopById(id);
+    public Result queryShopById(@PathVariable("id") Long id, HttpServletRequest request) {
+        Result result = shopService.queryShopById(id);
+        // 商铺存在时记录访客
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            uvRecorder.recordShop(id, UvRecorder.visitorOf(request));
+        }
+        return result;
     }
 
     /**
@@ -44,9 +51,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -64,37 +69,93 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度，与y同时传入时按距离排序
+     * @param y 纬度
+     * @param cursor 游标，传入时（第一页传空字符串）改为游标分页，返回下一页游标；按距离排序时为距离游标
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        if (cursor == null) {
+            return shopService.queryShopByType(typeId, current, x, y);
+        }
+        // 传入坐标时按距离游标分页
+        if (x != null && y != null) {
+            return shopService.queryShopNearbyWithCursor(typeId, x, y, cursor);
+        }
+        return shopService.queryShopByTypeWithCursor(typeId, cursor);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
+     * @param cursor 游标，传入时（第一页传空字符串）改为游标分页，返回下一页游标
      * @return 商铺列表
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        if (cursor != null) {
+            return shopService.queryShopByNameWithCursor(name, cursor);
+        }
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 商铺名称联想，搜索框每次输入时调用
+     * @param prefix 输入的前缀，支持名称、全拼、拼音首字母
+     * @param limit 返回数量
+     * @return 商铺id和名称
+     */
+    @GetMapping("/suggest")
+    public Result suggest(
+            @RequestParam(value = "prefix", required = false) String prefix,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return shopService.suggest(prefix, limit);
+    }
+
+    /**
+     * 商铺排行榜
+     * @param metric 排行指标：sold / comments / score
+     * @param typeId 商铺类型，与area二选一
+     * @param area 商圈
+     * @param limit 数量
+     * @return 按名次排序的商铺列表
+     */
+    @GetMapping("/rank")
+    public Result queryShopRank(
+            @RequestParam(value = "metric", defaultValue = "sold") String metric,
+            @RequestParam(value = "typeId", required = false) Long typeId,
+            @RequestParam(value = "area", required = false) String area,
+            @RequestParam(value = "limit", defaultValue = "10") Integer limit
+    ) {
+        return shopService.queryShopRank(metric, typeId, area, limit);
+    }
+
+    /**
+     * 查询商铺在排行榜中的名次
+     * @param id 商铺id
+     * @param metric 排行指标：sold / comments / score
+     * @param byArea true查商圈榜单，默认查类型榜单
+     * @return 名次和分数
+     */
+    @GetMapping("/rank/{id}")
+    public Result queryShopRankOf(
+            @PathVariable("id") Long id,
+            @RequestParam(value = "metric", defaultValue = "sold") String metric,
+            @RequestParam(value = "byArea", defaultValue = "false") Boolean byArea
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopRankOf(id, metric, byArea);
     }
 }
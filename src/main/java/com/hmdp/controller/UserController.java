@@ -6,6 +6,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
+import com.hmdp.service.ISignService;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.UserHolder;
@@ -13,7 +14,9 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -34,6 +37,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private ISignService signService;
+
     /**
      * 发送手机验证码
      */
@@ -56,9 +62,8 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(HttpServletRequest request){
+        return userService.logout(request.getHeader("authorization"));
     }
 
     @GetMapping("/me")
@@ -67,17 +72,59 @@ public class UserController {
         return Result.ok(userDTO);
     }
 
+    /**
+     * 修改昵称和头像
+     * @param profile 新的昵称、头像，为空的字段不修改
+     * @return 无
+     */
+    @PutMapping("/profile")
+    public Result updateProfile(@RequestBody UserDTO profile){
+        return userService.updateProfile(profile);
+    }
+
+    /**
+     * 今天签到
+     */
+    @PostMapping("/sign")
+    public Result sign(){
+        return signService.sign();
+    }
+
+    /**
+     * 连续签到天数和本月签到天数
+     */
+    @GetMapping("/sign/count")
+    public Result signCount(){
+        return signService.signCount();
+    }
+
+    /**
+     * 查询用户详情
+     * @param userId 用户id
+     * @return 用户详情，没有详情时返回空
+     */
     @GetMapping("/info/{id}")
     public Result info(@PathVariable("id") Long userId){
-        // 查询详情
-        UserInfo info = userInfoService.getById(userId);
-        if (info == null) {
-            // 没有详情，应该是第一次查看详情
-            return Result.ok();
-        }
-        info.setCreateTime(null);
-        info.setUpdateTime(null);
-        // 返回
-        return Result.ok(info);
+        return userInfoService.queryUserInfo(userId);
+    }
+
+    /**
+     * 批量查询用户详情
+     * @param ids 用户id，逗号分隔
+     * @return 与ids顺序一致的用户详情，没有详情的用户不包含在内
+     */
+    @GetMapping("/info")
+    public Result infos(@RequestParam("ids") List<Long> ids){
+        return userInfoService.queryUserInfos(ids);
+    }
+
+    /**
+     * 修改当前用户的城市、个人介绍、性别、生日
+     * @param info 新的详情，为空的字段不修改
+     * @return 无
+     */
+    @PutMapping("/info")
+    public Result updateInfo(@RequestBody UserInfo info){
+        return userInfoService.updateUserInfo(info);
     }
 }
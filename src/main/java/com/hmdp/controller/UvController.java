@@ -0,0 +1,63 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.UvRecorder;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+
+/**
+ * <p>
+ * 独立访客统计
+ * </p>
+ */
+@RestController
+@RequestMapping("/uv")
+public class UvController {
+
+    @Resource
+    private UvRecorder uvRecorder;
+
+    /**
+     * 商铺一个月的独立访客
+     * @param id 商铺id
+     * @param month 月份，yyyy-MM，默认本月
+     */
+    @GetMapping("/shop/{id}")
+    public Result queryShopUv(@PathVariable("id") Long id,
+                              @RequestParam(value = "month", required = false) String month) {
+        YearMonth m = parseMonth(month);
+        if (m == null) {
+            return Result.fail("月份格式错误");
+        }
+        return Result.ok(uvRecorder.shopReport(id, m));
+    }
+
+    /**
+     * 全站一个月的独立访客
+     * @param month 月份，yyyy-MM，默认本月
+     */
+    @GetMapping("/site")
+    public Result querySiteUv(@RequestParam(value = "month", required = false) String month) {
+        YearMonth m = parseMonth(month);
+        if (m == null) {
+            return Result.fail("月份格式错误");
+        }
+        return Result.ok(uvRecorder.siteReport(m));
+    }
+
+    private static YearMonth parseMonth(String month) {
+        if (month == null || month.isEmpty()) {
+            return YearMonth.now();
+        }
+        try {
+            YearMonth m = YearMonth.parse(month);
+            return m.isAfter(YearMonth.now()) ? null : m;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
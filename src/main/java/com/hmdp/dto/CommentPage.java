@@ -0,0 +1,22 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.BlogComments;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 一页一级评论，第一页整体写入缓存，不包含评论者昵称和头像
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommentPage {
+    private List<BlogComments> list;
+    /**
+     * 下一页的游标，为空表示没有更多数据
+     */
+    private String cursor;
+}
@@ -0,0 +1,46 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 收件箱推拉结合的运行统计，统计的是当前实例启动以来的数据
+ */
+@Data
+public class FeedStats {
+    /**
+     * 推送粉丝数阈值，粉丝数不低于该值的作者改为拉模式
+     */
+    private Long pushThreshold;
+    /**
+     * 拉模式的作者数量
+     */
+    private Long pullAuthors;
+    /**
+     * 发布的博文数
+     */
+    private Long published;
+    /**
+     * 写入收件箱、发件箱的总次数
+     */
+    private Long writes;
+    /**
+     * 写放大：平均每篇博文的写入次数
+     */
+    private Double writeAmplification;
+    /**
+     * 读取收件箱的次数
+     */
+    private Long reads;
+    /**
+     * 读取时平均合并的发件箱数量
+     */
+    private Double avgOutboxes;
+    /**
+     * 读取的平均耗时，单位微秒
+     */
+    private Double avgReadMicros;
+    /**
+     * 读取的最大耗时，单位微秒
+     */
+    private Long maxReadMicros;
+}
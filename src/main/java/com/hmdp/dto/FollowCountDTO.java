@@ -0,0 +1,20 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FollowCountDTO {
+    private Long userId;
+    /**
+     * 关注数
+     */
+    private Long following;
+    /**
+     * 粉丝数
+     */
+    private Long followers;
+}
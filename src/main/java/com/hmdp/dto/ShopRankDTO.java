@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopRankDTO {
+    private Long shopId;
+    /**
+     * 名次，从1开始
+     */
+    private Long rank;
+    private Double score;
+}
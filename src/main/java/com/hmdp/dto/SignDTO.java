@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SignDTO {
+    /**
+     * 今天是否已签到
+     */
+    private Boolean signedToday;
+    /**
+     * 连续签到天数，今天未签到时截止到昨天
+     */
+    private Integer streak;
+    /**
+     * 本月签到天数
+     */
+    private Integer monthCount;
+}
@@ -0,0 +1,28 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 一个月的独立访客统计，HyperLogLog估算，标准误差约0.81%
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UvReportDTO {
+    /**
+     * 月份，yyyy-MM
+     */
+    private String month;
+    /**
+     * 整月去重后的访客数，不是每天访客数之和
+     */
+    private Long total;
+    /**
+     * 每天的访客数，下标0为1号
+     */
+    private List<Long> daily;
+}
@@ -81,6 +81,11 @@ public class Blog implements Serializable {
      */
     private Integer comments;
 
+    /**
+     * 浏览人数，由redis中的HyperLogLog定时回写
+     */
+    private Integer views;
+
     /**
      * 创建时间
      */
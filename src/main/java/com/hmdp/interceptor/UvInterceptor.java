@@ -0,0 +1,22 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.utils.UvRecorder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class UvInterceptor implements HandlerInterceptor {
+    private UvRecorder uvRecorder;
+
+    public UvInterceptor(UvRecorder uvRecorder) {
+        this.uvRecorder = uvRecorder;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        //在RefreshTokenInterceptor之后执行，登录用户按用户id计数，只写入本地缓冲区
+        uvRecorder.recordSite(UvRecorder.visitorOf(request));
+        return true;
+    }
+}
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogCommentsMapper extends BaseMapper<BlogComments> {
 
+    /**
+     * 一条语句查询多条一级评论各自最早的几条回复
+     * @param parentIds 一级评论id
+     * @param limit 每条一级评论最多返回的回复数
+     * @return 按一级评论id、回复id排序的回复
+     */
+    List<BlogComments> queryReplyPreview(@Param("parentIds") Collection<Long> parentIds, @Param("limit") int limit);
 }
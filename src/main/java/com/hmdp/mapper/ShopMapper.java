@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 一条语句批量累加计数字段
+     * @param column 字段名，只能传入固定的列名
+     * @param deltas shopId -> 增量
+     * @return 更新的行数
+     */
+    int incrCounters(@Param("column") String column, @Param("deltas") Map<Long, Long> deltas);
 }
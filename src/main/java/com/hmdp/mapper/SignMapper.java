@@ -0,0 +1,22 @@
+package com.hmdp.mapper;
+
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Mapper 接口
+ * </p>
+ */
+public interface SignMapper extends BaseMapper<Sign> {
+
+    /**
+     * 一条语句批量写入月度签到位图，已存在的月份按位或合并，重复归档不影响结果
+     * @param signs 月度签到记录
+     * @return 影响的行数
+     */
+    int mergeMonths(@Param("signs") List<Sign> signs);
+}
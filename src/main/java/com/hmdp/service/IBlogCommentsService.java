@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.BlogComments;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,26 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogCommentsService extends IService<BlogComments> {
 
+    /**
+     * 游标分页查询博文的一级评论，按id倒序，每条附带最早的几条回复
+     * @param blogId 博文id
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 评论列表及下一页游标
+     */
+    Result queryComments(Long blogId, String cursor);
+
+    /**
+     * 游标分页查询一级评论下的回复，按id正序
+     * @param parentId 一级评论id
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 回复列表及下一页游标
+     */
+    Result queryReplies(Long parentId, String cursor);
+
+    /**
+     * 发表评论或回复
+     * @param comment 评论，parentId为空或0时是一级评论，answerId为空时回复的是一级评论
+     * @return 评论id
+     */
+    Result saveComment(BlogComments comment);
 }
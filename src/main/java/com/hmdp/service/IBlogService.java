@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,82 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
+    /**
+     * 分页查询热门博文，按热度（点赞数随发布时间衰减）倒序
+     * @param current 页码
+     * @return 博文列表
+     */
+    Result queryHotBlog(Integer current);
+
+    /**
+     * 游标分页查询热门博文，按热度倒序
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 博文列表及下一页游标
+     */
+    Result queryHotBlogWithCursor(String cursor);
+
+    /**
+     * 滚动分页查询关注的人发布的博文，按发布时间倒序
+     * @param max 上一页返回的minTime，第一页为空
+     * @param offset 上一页返回的offset，第一页为0
+     * @return 博文列表及下一页参数
+     */
+    Result queryBlogOfFollow(Long max, Integer offset);
+
+    /**
+     * 查询关注收件箱推拉结合的运行统计
+     * @return 写放大、读取耗时等
+     */
+    Result queryFeedStats();
+
+    /**
+     * 分页查询当前用户的博文
+     * @param current 页码
+     * @return 博文列表
+     */
+    Result queryMyBlog(Integer current);
+
+    /**
+     * 游标分页查询当前用户的博文，按id倒序
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 博文列表及下一页游标
+     */
+    Result queryMyBlogWithCursor(String cursor);
+
+    /**
+     * 发布探店博文
+     * @param blog 博文
+     * @return 博文id
+     */
+    Result saveBlog(Blog blog);
+
+    /**
+     * 查询博文详情，并记录访客
+     * @param id 博文id
+     * @param visitor 访客标识，登录用户为用户id，未登录为ip
+     * @return 博文，包含作者和当前用户的点赞状态
+     */
+    Result queryBlogById(Long id, String visitor);
+
+    /**
+     * 点赞或取消点赞
+     * @param id 博文id
+     * @param liked 目标状态，为空时切换当前状态
+     * @return 操作后是否已点赞
+     */
+    Result likeBlog(Long id, Boolean liked);
+
+    /**
+     * 查询最早点赞的几个用户
+     * @param id 博文id
+     * @return 按点赞时间排序的用户
+     */
+    Result queryBlogLikes(Long id);
+
+    /**
+     * 累加博文的评论数，先写入计数缓冲区，定时回写tb_blog.comments
+     * @param id 博文id
+     * @param delta 增量
+     */
+    void incrComments(Long id, long delta);
 }
@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.Result;
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,32 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IFollowService extends IService<Follow> {
 
+    /**
+     * 关注或取消关注
+     * @param followUserId 被关注的用户id
+     * @param isFollow true关注，false取消关注
+     * @return 操作结果
+     */
+    Result follow(Long followUserId, Boolean isFollow);
+
+    /**
+     * 当前用户是否已关注
+     * @param followUserId 被关注的用户id
+     * @return 是否已关注
+     */
+    Result isFollow(Long followUserId);
+
+    /**
+     * 当前用户与另一个用户的共同关注
+     * @param id 另一个用户的id
+     * @return 共同关注的用户
+     */
+    Result followCommons(Long id);
+
+    /**
+     * 查询用户的关注数和粉丝数
+     * @param id 用户id
+     * @return 关注数和粉丝数
+     */
+    Result queryFollowCount(Long id);
 }
@@ -26,4 +26,92 @@ public interface IShopService extends IService<Shop> {
      * @return 无
      */
     Result update(Shop shop);
+
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
+
+    /**
+     * 根据商铺类型分页查询商铺信息，传入坐标时按距离由近到远排序
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @return 商铺列表
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 根据商铺类型按距离由近到远游标分页查询附近商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    Result queryShopNearbyWithCursor(Integer typeId, Double x, Double y, String cursor);
+
+    /**
+     * 根据商铺类型游标分页查询商铺信息，排序与queryShopByType相同
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    Result queryShopByTypeWithCursor(Integer typeId, String cursor);
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息，有关键字时按匹配质量排序，否则按id升序
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    Result queryShopByNameWithCursor(String name, String cursor);
+
+    /**
+     * 商铺名称联想
+     * @param prefix 输入的前缀，支持名称、全拼、拼音首字母
+     * @param limit 返回数量
+     * @return 按销量、评分排序的商铺id和名称
+     */
+    Result suggest(String prefix, Integer limit);
+
+    /**
+     * 查询类型或商圈排行榜
+     * @param metric 排行指标：sold / comments / score
+     * @param typeId 商铺类型，与area二选一
+     * @param area 商圈
+     * @param limit 数量
+     * @return 按名次排序的商铺列表
+     */
+    Result queryShopRank(String metric, Long typeId, String area, Integer limit);
+
+    /**
+     * 查询商铺在所属类型或商圈排行榜中的名次
+     * @param id 商铺id
+     * @param metric 排行指标：sold / comments / score
+     * @param byArea true查商圈榜单，false查类型榜单
+     * @return 名次和分数
+     */
+    Result queryShopRankOf(Long id, String metric, Boolean byArea);
+
+    /**
+     * 将商铺坐标按类型导入redis GEO，已存在的类型跳过
+     */
+    void loadShopGeo();
+
+    /**
+     * 将商铺id按类型和排序分数导入redis ZSET，已存在的类型跳过
+     */
+    void loadShopTypeList();
 }
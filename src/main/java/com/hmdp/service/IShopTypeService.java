@@ -3,6 +3,7 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.hmdp.utils.JsonSnapshot;
 
 /**
  * <p>
@@ -15,7 +16,27 @@ import com.baomidou.mybatisplus.extension.service.IService;
 public interface IShopTypeService extends IService<ShopType> {
     /**
      * 查询商铺类型列表
-     * @return 商铺类型列表
+     * @return 序列化好的商铺类型列表快照
      */
-    Result queryTypeList();
+    JsonSnapshot queryTypeListSnapshot();
+
+    /**
+     * 商铺类型变更后调用，通知所有实例重新加载
+     */
+    void refreshTypeList();
+
+    /**
+     * 新增商铺类型，事务提交后刷新所有实例的快照。仅供内部调用，不对外暴露接口
+     */
+    Result saveShopType(ShopType shopType);
+
+    /**
+     * 修改商铺类型，事务提交后刷新所有实例的快照。仅供内部调用，不对外暴露接口
+     */
+    Result updateShopType(ShopType shopType);
+
+    /**
+     * 删除商铺类型，事务提交后刷新所有实例的快照。仅供内部调用，不对外暴露接口
+     */
+    Result deleteShopType(Long id);
 }
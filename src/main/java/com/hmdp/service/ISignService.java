@@ -0,0 +1,25 @@
+package com.hmdp.service;
+
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Sign;
+import com.baomidou.mybatisplus.extension.service.IService;
+
+/**
+ * <p>
+ *  服务类
+ * </p>
+ */
+public interface ISignService extends IService<Sign> {
+
+    /**
+     * 当前用户今天签到
+     * @return 签到后的统计
+     */
+    Result sign();
+
+    /**
+     * 当前用户的连续签到天数和本月签到天数
+     * @return 签到统计
+     */
+    Result signCount();
+}
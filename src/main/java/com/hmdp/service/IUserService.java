@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -32,4 +35,25 @@ public interface IUserService extends IService<User> {
      * @return 结果
      */
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 登出，所有实例上的会话缓存立即失效
+     * @param token 登录令牌
+     * @return 结果
+     */
+    Result logout(String token);
+
+    /**
+     * 批量查询用户的昵称和头像，用于渲染博文、评论的作者
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，不存在的用户不包含在内
+     */
+    Map<Long, UserDTO> getProfiles(Collection<Long> ids);
+
+    /**
+     * 修改当前用户的昵称和头像
+     * @param profile 新的昵称、头像，为空的字段不修改
+     * @return 结果
+     */
+    Result updateProfile(UserDTO profile);
 }
@@ -1,11 +1,30 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.CommentPage;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_COMMENTS_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.SystemConstants.*;
+
 /**
  * <p>
  *  服务实现类
@@ -16,5 +35,160 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
+    @Resource
+    private IBlogService blogService;
+
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Override
+    public Result queryComments(Long blogId, String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 1.博文不存在时不查询，也不会写入评论缓存
+        Blog blog = cacheClient.query(CACHE_BLOG_KEY, blogId, Blog.class, blogService::getById);
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        // 2.第一页读缓存，有新评论时删除；后面的页访问少，按id倒序走索引查询
+        CommentPage page = last == null
+                ? cacheClient.query(CACHE_BLOG_COMMENTS_KEY, blogId, CommentPage.class, id -> queryCommentPage(id, null))
+                : queryCommentPage(blogId, last[0]);
+        // 3.昵称和头像可能修改，不放在评论缓存中，每次批量补齐
+        List<BlogComments> comments = new ArrayList<>(page.getList());
+        for (BlogComments comment : page.getList()) {
+            if (comment.getReplies() != null) {
+                comments.addAll(comment.getReplies());
+            }
+        }
+        fillCommentUser(comments);
+        return Result.ok(new CursorResult(page.getList(), page.getCursor()));
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        if (parentId == null || parentId <= 0) {
+            return Result.fail("评论不存在");
+        }
+        // WHERE parent_id = ? AND id > ? ORDER BY id，走idx_parent_id索引
+        List<BlogComments> replies = query()
+                .eq("parent_id", parentId)
+                .gt(last != null, "id", last == null ? null : last[0])
+                .and(w -> w.isNull("status").or().lt("status", 2))
+                .orderByAsc("id")
+                .last("LIMIT " + (MAX_PAGE_SIZE + 1))
+                .list();
+        boolean hasMore = CursorUtils.trimPage(replies, MAX_PAGE_SIZE);
+        fillCommentUser(replies);
+        String next = hasMore ? CursorUtils.encode(replies.get(replies.size() - 1).getId()) : null;
+        return Result.ok(new CursorResult(replies, next));
+    }
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验评论内容
+        if (StrUtil.isBlank(comment.getContent())) {
+            return Result.fail("评论内容不能为空");
+        }
+        if (comment.getContent().length() > COMMENT_MAX_LENGTH) {
+            return Result.fail("评论内容过长");
+        }
+        // 2.校验博文
+        Long blogId = comment.getBlogId();
+        Blog blog = blogId == null ? null : cacheClient.query(CACHE_BLOG_KEY, blogId, Blog.class, blogService::getById);
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        // 3.回复时校验一级评论和被回复的评论属于这篇博文，回复只挂在一级评论下
+        long parentId = comment.getParentId() == null ? 0 : comment.getParentId();
+        long answerId = 0;
+        if (parentId != 0) {
+            BlogComments parent = getById(parentId);
+            if (parent == null || !blogId.equals(parent.getBlogId()) || parent.getParentId() != 0) {
+                return Result.fail("评论不存在");
+            }
+            answerId = comment.getAnswerId() == null || comment.getAnswerId() == 0 ? parentId : comment.getAnswerId();
+            if (answerId != parentId) {
+                BlogComments answer = getById(answerId);
+                if (answer == null || answer.getParentId() != parentId) {
+                    return Result.fail("回复的评论不存在");
+                }
+            }
+        }
+        // 4.保存评论
+        comment.setId(null)
+                .setUserId(UserHolder.getUser().getId())
+                .setParentId(parentId)
+                .setAnswerId(answerId)
+                .setLiked(0)
+                .setStatus(false)
+                .setCreateTime(null)
+                .setUpdateTime(null);
+        boolean success = save(comment);
+        if (!success) {
+            return Result.fail("评论失败");
+        }
+        // 5.累加博文评论数，删除第一页评论缓存（回复也会改变预览）
+        blogService.incrComments(blogId, 1);
+        cacheClient.invalidate(CACHE_BLOG_COMMENTS_KEY, blogId);
+        return Result.ok(comment.getId());
+    }
+
+    // WHERE blog_id = ? AND parent_id = 0 AND id < ? ORDER BY id DESC，走idx_blog_parent索引
+    private CommentPage queryCommentPage(Long blogId, Long lastId) {
+        List<BlogComments> comments = query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .lt(lastId != null, "id", lastId)
+                .and(w -> w.isNull("status").or().lt("status", 2))
+                .orderByDesc("id")
+                .last("LIMIT " + (MAX_PAGE_SIZE + 1))
+                .list();
+        boolean hasMore = CursorUtils.trimPage(comments, MAX_PAGE_SIZE);
+        fillReplies(comments);
+        String next = hasMore ? CursorUtils.encode(comments.get(comments.size() - 1).getId()) : null;
+        return new CommentPage(comments, next);
+    }
+
+    // 一条窗口函数查询补齐这一页每条一级评论最早的几条回复，避免逐条查询
+    private void fillReplies(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Long> parentIds = comments.stream().map(BlogComments::getId).collect(Collectors.toList());
+        Map<Long, List<BlogComments>> replies = baseMapper.queryReplyPreview(parentIds, COMMENT_REPLY_PREVIEW)
+                .stream().collect(Collectors.groupingBy(BlogComments::getParentId));
+        for (BlogComments comment : comments) {
+            comment.setReplies(replies.getOrDefault(comment.getId(), Collections.emptyList()));
+        }
+    }
 
+    // 通过用户信息缓存批量补齐评论者的昵称和头像
+    private void fillCommentUser(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = comments.stream().map(BlogComments::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.getProfiles(userIds);
+        for (BlogComments comment : comments) {
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+        }
+    }
 }
@@ -1,10 +1,46 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogFeed;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CounterBuffer;
+import com.hmdp.utils.CursorUtils;
+import com.hmdp.utils.ShopLeaderboard;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.ZSetScroll;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -14,7 +50,373 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
+    @Resource
+    private IUserService userService;
+
+    @Resource
+    private ShopLeaderboard shopLeaderboard;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private BlogFeed blogFeed;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    //点赞数的计数缓冲区，点赞时累加，定时回写tb_blog.liked
+    private CounterBuffer likedBuffer;
+    //评论数的计数缓冲区，评论时累加，定时回写tb_blog.comments
+    private CounterBuffer commentsBuffer;
+
+    //每条UPDATE语句回写的博文数量
+    private static final int FLUSH_BATCH = 500;
+
+    //加载lua脚本
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("lua/like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    //热门博文zset保留的数量
+    @Value("${hmdp.blog.hot-size:10000}")
+    private int hotSize;
+
+    //热度的时间衰减：每过45000秒（12.5小时），新博文需要多10倍的点赞才能排在旧博文之前
+    private static final long HOT_DECAY_SECONDS = 45000;
+
+    @PostConstruct
+    public void init() {
+        likedBuffer = new CounterBuffer(stringRedisTemplate, BLOG_COUNTER_KEY + "liked");
+        commentsBuffer = new CounterBuffer(stringRedisTemplate, BLOG_COUNTER_KEY + "comments");
+        loadHotBlog();
+    }
+
+    /**
+     * 热门博文zset不存在时，取最新的hotSize篇博文计算热度导入
+     */
+    private void loadHotBlog() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            return;
+        }
+        List<Blog> blogs = query().select("id", "liked", "create_time")
+                .orderByDesc("id")
+                .last("LIMIT " + hotSize)
+                .list();
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = blogs.stream()
+                .map(blog -> new DefaultTypedTuple<>(blog.getId().toString(), hotScore(blog.getLiked(), blog.getCreateTime())))
+                .collect(Collectors.toSet());
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, tuples);
+    }
+
+    @Override
+    public Result saveBlog(Blog blog) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        blog.setUserId(user.getId());
+        // 发布时间用于计算热度和收件箱排序
+        blog.setCreateTime(LocalDateTime.now());
+        // 保存探店博文
+        boolean success = save(blog);
+        if (!success) {
+            return Result.fail("发布失败");
+        }
+        // 探店博文计入商铺评论数
+        if (blog.getShopId() != null) {
+            shopLeaderboard.incr(blog.getShopId(), ShopLeaderboard.COMMENTS, 1);
+        }
+        // 加入热门博文，并去掉热度最低的部分
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), hotScore(0, blog.getCreateTime()));
+        stringRedisTemplate.opsForZSet().removeRange(BLOG_HOT_KEY, 0, -hotSize - 1);
+        // 异步推送到粉丝的收件箱
+        blogFeed.publish(blog);
+        // 返回id
+        return Result.ok(blog.getId());
+    }
+
+    @Override
+    public Result queryBlogById(Long id, String visitor) {
+        // 通过缓存查询博文
+        Blog blog = cacheClient.query(CACHE_BLOG_KEY, id, Blog.class, this::getById);
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        // 补齐作者和点赞状态
+        List<Blog> blogs = Collections.singletonList(blog);
+        fillBlogUser(blogs);
+        fillIsLike(blogs);
+        // 记录访客，HyperLogLog去重计数，每篇博文最多占用12KB
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.pfAdd(BLOG_UV_KEY + id, visitor);
+            conn.sAdd(BLOG_UV_DIRTY_KEY, id.toString());
+            return null;
+        });
+        return Result.ok(blog);
+    }
+
+    @Override
+    public Result likeBlog(Long id, Boolean liked) {
+        // 博文不存在时不写入redis
+        Blog blog = cacheClient.query(CACHE_BLOG_KEY, id, Blog.class, this::getById);
+        if (blog == null) {
+            return Result.fail("博文不存在");
+        }
+        Long userId = UserHolder.getUser().getId();
+        // lua脚本原子地判断是否已点赞、修改zset、累加计数并更新热度，重复请求不会重复计数
+        Long result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, likedBuffer.getKey(), BLOG_HOT_KEY, likedBuffer.getDrainingKey()),
+                userId.toString(),
+                String.valueOf(System.currentTimeMillis()),
+                id.toString(),
+                liked == null ? "" : (liked ? "1" : "0"),
+                String.valueOf(hotScore(0, blog.getCreateTime())),
+                String.valueOf(blog.getLiked() == null ? 0 : blog.getLiked())
+        );
+        // 返回点赞后的状态
+        return Result.ok(Long.valueOf(1).equals(result));
+    }
+
+    @Override
+    public Result queryBlogLikes(Long id) {
+        // 1.点赞zset的分数是点赞时间，ZRANGE 0 n-1取最早的n个，复杂度O(log(N)+n)，与点赞总数无关
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .range(BLOG_LIKED_KEY + id, 0, SystemConstants.BLOG_LIKERS_PREVIEW - 1);
+        if (members == null || members.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2.一次批量查询用户信息缓存，按点赞顺序返回
+        List<Long> userIds = members.stream().map(Long::valueOf).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.getProfiles(userIds);
+        List<UserDTO> likers = userIds.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(likers);
+    }
+
+    @Override
+    public void incrComments(Long id, long delta) {
+        // 热门博文的评论集中在同一行，直接UPDATE会在行锁上排队
+        commentsBuffer.incr(id, delta);
+    }
+
+    /**
+     * 把缓冲区中的点赞数、评论数增量批量回写tb_blog，多实例部署时只有拿到锁的实例执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.blog.counter-flush-interval:10000}")
+    public void flushCounters() {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            flushCounter("liked", likedBuffer);
+            flushCounter("comments", commentsBuffer);
+            flushViews();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 同一批增量在一个事务中回写，失败时整体保留到下次；提交后ack失败会重复回写一次，见CounterBuffer
+    private void flushCounter(String column, CounterBuffer buffer) {
+        Map<Long, Long> deltas = buffer.flush(all -> transactionTemplate.executeWithoutResult(status ->
+                CounterBuffer.partition(all, FLUSH_BATCH).forEach(batch -> baseMapper.incrCounters(column, batch))));
+        if (!deltas.isEmpty()) {
+            // 缓存中的计数已过期，热度计算也依赖点赞数
+            deltas.keySet().forEach(blogId -> cacheClient.invalidate(CACHE_BLOG_KEY, blogId));
+            log.debug("回写博文{}，共{}篇博文", column, deltas.size());
+        }
+    }
+
+    // 回写有新访客的博文的浏览人数，浏览人数是PFCOUNT的结果，重复回写不影响正确性
+    private void flushViews() {
+        int total = 0;
+        while (true) {
+            List<String> ids = stringRedisTemplate.opsForSet().pop(BLOG_UV_DIRTY_KEY, FLUSH_BATCH);
+            if (ids == null || ids.isEmpty()) {
+                break;
+            }
+            try {
+                List<Object> counts = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (String id : ids) {
+                        conn.pfCount(BLOG_UV_KEY + id);
+                    }
+                    return null;
+                });
+                Map<Long, Long> views = new HashMap<>(ids.size() * 2);
+                for (int i = 0; i < ids.size(); i++) {
+                    views.put(Long.valueOf(ids.get(i)), (Long) counts.get(i));
+                }
+                baseMapper.updateViews(views);
+            } catch (RuntimeException e) {
+                // 放回去下次重试
+                stringRedisTemplate.opsForSet().add(BLOG_UV_DIRTY_KEY, ids.toArray(new String[0]));
+                throw e;
+            }
+            total += ids.size();
+        }
+        if (total > 0) {
+            log.debug("回写博文浏览人数，共{}篇博文", total);
+        }
+    }
+
+    @Override
+    public Result queryHotBlog(Integer current) {
+        // 从热门博文zset中按热度倒序分页
+        int start = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        Set<String> members = stringRedisTemplate.opsForZSet()
+                .reverseRange(BLOG_HOT_KEY, start, start + SystemConstants.MAX_PAGE_SIZE - 1);
+        List<Long> ids = members == null ? Collections.emptyList()
+                : members.stream().map(Long::valueOf).collect(Collectors.toList());
+        return Result.ok(queryBlogByIds(ids));
+    }
+
+    @Override
+    public Result queryHotBlogWithCursor(String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 游标记录上一页最后一篇博文的热度和同热度已返回的个数
+        double max = last == null ? Double.POSITIVE_INFINITY : Double.longBitsToDouble(last[0]);
+        int offset = last == null ? 0 : (int) last[1];
+        ZSetScroll scroll = ZSetScroll.scroll(stringRedisTemplate, BLOG_HOT_KEY, max, offset, SystemConstants.MAX_PAGE_SIZE);
+        List<Long> ids = scroll.getMembers().stream().map(Long::valueOf).collect(Collectors.toList());
+        String next = ids.size() < SystemConstants.MAX_PAGE_SIZE ? null
+                : CursorUtils.encode(Double.doubleToLongBits(scroll.getMin()), scroll.getOffset());
+        return Result.ok(new CursorResult(queryBlogByIds(ids), next));
+    }
+
+    @Override
+    public Result queryBlogOfFollow(Long max, Integer offset) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 从收件箱中按时间倒序滚动读取
+        ZSetScroll scroll = blogFeed.scroll(user.getId(),
+                max == null ? Double.POSITIVE_INFINITY : max, offset == null ? 0 : offset, SystemConstants.MAX_PAGE_SIZE);
+        List<Long> ids = scroll.getMembers().stream().map(Long::valueOf).collect(Collectors.toList());
+        // 补齐博文、作者和点赞状态
+        ScrollResult result = new ScrollResult();
+        result.setList(queryBlogByIds(ids));
+        result.setMinTime((long) scroll.getMin());
+        result.setOffset(scroll.getOffset());
+        return Result.ok(result);
+    }
+
+    @Override
+    public Result queryFeedStats() {
+        return Result.ok(blogFeed.stats());
+    }
+
+    @Override
+    public Result queryMyBlog(Integer current) {
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // 根据用户查询
+        Page<Blog> page = query()
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        // 获取当前页数据
+        List<Blog> records = page.getRecords();
+        fillIsLike(records);
+        return Result.ok(records);
+    }
+
+    @Override
+    public Result queryMyBlogWithCursor(String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        // 获取登录用户
+        UserDTO user = UserHolder.getUser();
+        // WHERE user_id = ? AND id < ? ORDER BY id DESC，新发布的博文不会导致翻页重复
+        List<Blog> records = query()
+                .eq("user_id", user.getId())
+                .lt(last != null, "id", last == null ? null : last[0])
+                .orderByDesc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        boolean hasMore = CursorUtils.trimPage(records, SystemConstants.MAX_PAGE_SIZE);
+        fillIsLike(records);
+        String next = hasMore ? CursorUtils.encode(records.get(records.size() - 1).getId()) : null;
+        return Result.ok(new CursorResult(records, next));
+    }
+
+    /**
+     * 一次pipeline批量查询当前用户是否点赞过这些博文，未登录时不查询
+     */
+    private void fillIsLike(List<Blog> blogs) {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || blogs.isEmpty()) {
+            return;
+        }
+        String userId = user.getId().toString();
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    /**
+     * 热度 = log10(点赞数) + 发布时间 / 45000秒，点赞数不足1按1计算，与like.lua中的计算一致
+     */
+    private static double hotScore(long likes, LocalDateTime createTime) {
+        long seconds = (createTime == null ? LocalDateTime.now() : createTime).toEpochSecond(ZoneOffset.UTC);
+        return Math.log10(Math.max(likes, 1)) + (double) seconds / HOT_DECAY_SECONDS;
+    }
+
+    // 通过博文缓存批量补齐博文，一次MGET，未命中的一次IN查询后pipeline写回，保持ids的顺序，再批量补齐作者和点赞状态
+    private List<Blog> queryBlogByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Long, Blog> blogMap = cacheClient.queryBatch(CACHE_BLOG_KEY, ids, Blog.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Blog::getId, blog -> blog)));
+        List<Blog> blogs = ids.stream().map(blogMap::get).filter(Objects::nonNull).collect(Collectors.toList());
+        fillBlogUser(blogs);
+        fillIsLike(blogs);
+        return blogs;
+    }
 
+    // 通过用户信息缓存批量补齐博文作者的昵称和头像
+    private void fillBlogUser(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        Set<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toSet());
+        Map<Long, UserDTO> users = userService.getProfiles(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+        }
+    }
 }
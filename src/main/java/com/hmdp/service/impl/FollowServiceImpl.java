@@ -1,11 +1,24 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowGraph;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -16,5 +29,55 @@ import org.springframework.stereotype.Service;
  */
 @Service
 public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> implements IFollowService {
+    @Resource
+    private FollowGraph followGraph;
+
+    @Resource
+    private IUserService userService;
+
+    @Override
+    public Result follow(Long followUserId, Boolean isFollow) {
+        // 1.获取登录用户
+        Long userId = UserHolder.getUser().getId();
+        if (userId.equals(followUserId)) {
+            return Result.fail("不能关注自己");
+        }
+        // 2.取关不需要校验用户是否存在
+        if (!Boolean.TRUE.equals(isFollow)) {
+            followGraph.unfollow(userId, followUserId);
+            return Result.ok();
+        }
+        // 3.关注时校验被关注的用户存在
+        if (!userService.getProfiles(Collections.singleton(followUserId)).containsKey(followUserId)) {
+            return Result.fail("用户不存在");
+        }
+        // 4.先写tb_follow，再同步关注集合和计数，重复关注不重复计数
+        followGraph.follow(userId, followUserId);
+        return Result.ok();
+    }
+
+    @Override
+    public Result isFollow(Long followUserId) {
+        Long userId = UserHolder.getUser().getId();
+        return Result.ok(followGraph.isFollowing(userId, followUserId));
+    }
+
+    @Override
+    public Result followCommons(Long id) {
+        // 1.SINTER求两人关注集合的交集
+        Long userId = UserHolder.getUser().getId();
+        Set<Long> ids = followGraph.common(userId, id);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 2.批量查询用户信息
+        Map<Long, UserDTO> users = userService.getProfiles(ids);
+        List<UserDTO> commons = ids.stream().map(users::get).filter(Objects::nonNull).collect(Collectors.toList());
+        return Result.ok(commons);
+    }
 
+    @Override
+    public Result queryFollowCount(Long id) {
+        return Result.ok(followGraph.counts(id));
+    }
 }
@@ -2,24 +2,52 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopRankDTO;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CursorUtils;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopLeaderboard;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopSpatialIndex;
+import com.hmdp.utils.ShopSuggestIndex;
+import com.hmdp.utils.SpatialGridIndex;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TransactionUtils;
+import com.hmdp.utils.ZSetScroll;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -33,12 +61,44 @@ import static com.hmdp.utils.RedisConstants.*;
  */
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    private static final DefaultRedisScript<List> NEARBY_SCRIPT;
+    static {
+        NEARBY_SCRIPT = new DefaultRedisScript<>();
+        NEARBY_SCRIPT.setLocation(new ClassPathResource("lua/nearby.lua"));
+        NEARBY_SCRIPT.setResultType(List.class);
+    }
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
     private CacheClient cacheClient;
 
+    @Resource
+    private ShopSpatialIndex shopSpatialIndex;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
+    @Resource
+    private ShopSuggestIndex shopSuggestIndex;
+
+    @Resource
+    private ShopLeaderboard shopLeaderboard;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //本实例的标识，收到自己发布的商铺变更时跳过
+    private final String instanceId = UUID.randomUUID().toString();
+
+    //附近商铺查询引擎：redis使用GEOSEARCH，memory使用进程内空间索引
+    @Value("${hmdp.shop.geo-engine:redis}")
+    private String geoEngine;
+
+    //按类型浏览商铺时的排序字段：sold / score / comments / id，均为倒序
+    @Value("${hmdp.shop.type-rank:sold}")
+    private String typeRank;
 
     /**
      * 根据id查询商铺信息
@@ -47,12 +107,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Result queryShopById(Long id) {
-        //解决缓存穿透
-        //Shop shop = cacheClient.queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        //互斥锁解决缓存击穿
-        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        //逻辑过期时间解决缓存击穿
-        //Shop shop = cacheClient.queryWithLogicalExpireTime(CACHE_SHOP_KEY, LOCK_SHOP_KEY, id, Shop.class, this::getById, 20L, TimeUnit.SECONDS);
+        //缓存策略（缓存穿透/互斥锁/逻辑过期）由application.yaml中hmdp.cache.policies配置
+        Shop shop = cacheClient.query(CACHE_SHOP_KEY, id, Shop.class, this::getById);
         if(shop == null){
             return Result.fail("商铺不存在");
         }
@@ -72,11 +128,484 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if(id == null){
             return Result.fail("商铺id不能为空");
         }
+        Shop old = getById(id);
+        if(old == null){
+            return Result.fail("商铺不存在");
+        }
         //1.更新数据库
         updateById(shop);
-        //2.删除缓存
-        String key = CACHE_SHOP_KEY + shop.getId();
-        stringRedisTemplate.delete(key);
+        //2.事务提交后删除缓存，同步GEO坐标和各个索引，回滚时不会留下脏数据
+        Shop merged = mergeShop(old, shop);
+        TransactionUtils.afterCommit(() -> {
+            cacheClient.invalidate(CACHE_SHOP_KEY, id);
+            syncShopIndexes(old, merged);
+            publishShopChange(id);
+        });
         return Result.ok();
     }
+
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    @Transactional
+    public Result saveShop(Shop shop) {
+        //1.写入数据库
+        save(shop);
+        //2.事务提交后写入GEO和各个索引
+        TransactionUtils.afterCommit(() -> {
+            syncShopIndexes(null, shop);
+            publishShopChange(shop.getId());
+        });
+        return Result.ok(shop.getId());
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息，传入坐标时按距离由近到远排序
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度
+     * @param y 纬度
+     * @return 商铺列表
+     */
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        //1.不需要按坐标查询，从redis中按类型预先排好序的商铺id分页，再通过商铺缓存补齐
+        if(x == null || y == null){
+            String key = loadShopTypeList(typeId);
+            int start = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+            Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, start, start + SystemConstants.DEFAULT_PAGE_SIZE - 1);
+            List<Long> ids = members == null ? Collections.emptyList()
+                    : members.stream().map(Long::valueOf).collect(Collectors.toList());
+            return Result.ok(queryShopByIds(ids));
+        }
+        //2.计算分页参数，只能查到end后截掉前from条，滚动加载应使用按距离的游标分页
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        //3.查询最近的end个商铺：redis GEOSEARCH或进程内空间索引
+        List<SpatialGridIndex.Hit> hits = "memory".equals(geoEngine)
+                ? shopSpatialIndex.nearest(typeId.longValue(), x, y, end, SystemConstants.SHOP_GEO_RADIUS)
+                : searchShopGeo(typeId, x, y, end);
+        //4.没有下一页了
+        if(hits.size() <= from){
+            return Result.ok(Collections.emptyList());
+        }
+        //5.截取from ~ end的部分，通过商铺缓存补齐
+        return Result.ok(toNearbyShops(hits.subList(from, hits.size())));
+    }
+
+    /**
+     * 根据商铺类型按距离由近到远游标分页查询附近商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    @Override
+    public Result queryShopNearbyWithCursor(Integer typeId, Double x, Double y, String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decodeAtLeast(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        //1.游标记录上一页最后一个商铺的距离、已返回的商铺数量、与该距离相同的已返回商铺id
+        double after = last == null ? -1 : Double.longBitsToDouble(last[0]);
+        int returned = last == null ? 0 : (int) last[1];
+        Set<Long> seen = new HashSet<>();
+        for (int i = 2; last != null && i < last.length; i++) {
+            seen.add(last[i]);
+        }
+        //2.查询距离在游标之后的一页商铺
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<SpatialGridIndex.Hit> hits = "memory".equals(geoEngine)
+                ? shopSpatialIndex.nearest(typeId.longValue(), x, y, size, SystemConstants.SHOP_GEO_RADIUS, after, seen)
+                : searchShopGeoAfter(typeId, x, y, size, after, seen, returned);
+        //3.不足一页说明没有更多了，否则生成下一页游标
+        String next = null;
+        if(hits.size() == size){
+            double lastDistance = hits.get(size - 1).getDistance();
+            List<Long> values = new ArrayList<>();
+            values.add(Double.doubleToLongBits(lastDistance));
+            values.add((long) returned + size);
+            //距离没有变化时，之前页已返回的同距离商铺也要继续跳过
+            if(lastDistance == after){
+                values.addAll(seen);
+            }
+            for (SpatialGridIndex.Hit hit : hits) {
+                if(hit.getDistance() == lastDistance){
+                    values.add(hit.getId());
+                }
+            }
+            next = CursorUtils.encode(values.stream().mapToLong(Long::longValue).toArray());
+        }
+        return Result.ok(new CursorResult(toNearbyShops(hits), next));
+    }
+
+    /**
+     * 根据商铺类型游标分页查询商铺信息，排序与queryShopByType相同
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    @Override
+    public Result queryShopByTypeWithCursor(Integer typeId, String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 2);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        //游标记录上一页最后一个商铺的排序分数和同分数已返回的个数
+        double max = last == null ? Double.POSITIVE_INFINITY : Double.longBitsToDouble(last[0]);
+        int offset = last == null ? 0 : (int) last[1];
+        ZSetScroll scroll = ZSetScroll.scroll(stringRedisTemplate, loadShopTypeList(typeId), max, offset, SystemConstants.DEFAULT_PAGE_SIZE);
+        List<Long> ids = scroll.getMembers().stream().map(Long::valueOf).collect(Collectors.toList());
+        String next = ids.size() < SystemConstants.DEFAULT_PAGE_SIZE ? null
+                : CursorUtils.encode(Double.doubleToLongBits(scroll.getMin()), scroll.getOffset());
+        return Result.ok(new CursorResult(queryShopByIds(ids), next));
+    }
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.没有关键字，按数据库分页，不执行count查询
+        if(StrUtil.isBlank(name)){
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        //2.从名称索引查询按匹配质量排序的商铺id
+        List<Long> ids = shopNameIndex.search(name);
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        if(from >= ids.size()){
+            return Result.ok(Collections.emptyList());
+        }
+        int end = Math.min(from + SystemConstants.MAX_PAGE_SIZE, ids.size());
+        //3.通过商铺缓存批量补齐商铺信息
+        return Result.ok(queryShopByIds(ids.subList(from, end)));
+    }
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息，有关键字时按匹配质量排序，否则按id升序
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的游标，为空表示第一页
+     * @return 商铺列表及下一页游标
+     */
+    @Override
+    public Result queryShopByNameWithCursor(String name, String cursor) {
+        long[] last;
+        try {
+            last = CursorUtils.decode(cursor, 1);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标");
+        }
+        if(StrUtil.isNotBlank(name)){
+            //名称索引的结果按匹配质量排序，游标记录的是在结果中的位置
+            List<Long> ids = shopNameIndex.search(name);
+            int from = last == null ? 0 : (int) Math.min(last[0], ids.size());
+            int end = Math.min(from + SystemConstants.MAX_PAGE_SIZE, ids.size());
+            String next = end < ids.size() ? CursorUtils.encode(end) : null;
+            return Result.ok(new CursorResult(queryShopByIds(ids.subList(from, end)), next));
+        }
+        //没有关键字时按id升序
+        List<Shop> shops = query()
+                .gt(last != null, "id", last == null ? null : last[0])
+                .orderByAsc("id")
+                .last("LIMIT " + (SystemConstants.MAX_PAGE_SIZE + 1))
+                .list();
+        return Result.ok(toCursorResult(shops, SystemConstants.MAX_PAGE_SIZE));
+    }
+
+    /**
+     * 商铺名称联想
+     * @param prefix 输入的前缀，支持名称、全拼、拼音首字母
+     * @param limit 返回数量
+     * @return 按销量、评分排序的商铺id和名称
+     */
+    @Override
+    public Result suggest(String prefix, Integer limit) {
+        return Result.ok(shopSuggestIndex.suggest(prefix, limit));
+    }
+
+    /**
+     * 查询类型或商圈排行榜
+     * @param metric 排行指标：sold / comments / score
+     * @param typeId 商铺类型，与area二选一
+     * @param area 商圈
+     * @param limit 数量
+     * @return 按名次排序的商铺列表
+     */
+    @Override
+    public Result queryShopRank(String metric, Long typeId, String area, Integer limit) {
+        if(!ShopLeaderboard.METRICS.contains(metric)){
+            return Result.fail("不支持的排行指标");
+        }
+        if((typeId == null) == StrUtil.isBlank(area)){
+            return Result.fail("请选择商铺类型或商圈");
+        }
+        int n = Math.max(1, Math.min(limit, SystemConstants.MAX_PAGE_SIZE));
+        List<Long> ids = shopLeaderboard.top(metric, typeId, area, n);
+        return Result.ok(queryShopByIds(ids));
+    }
+
+    /**
+     * 查询商铺在所属类型或商圈排行榜中的名次
+     * @param id 商铺id
+     * @param metric 排行指标：sold / comments / score
+     * @param byArea true查商圈榜单，false查类型榜单
+     * @return 名次和分数
+     */
+    @Override
+    public Result queryShopRankOf(Long id, String metric, Boolean byArea) {
+        if(!ShopLeaderboard.METRICS.contains(metric)){
+            return Result.fail("不支持的排行指标");
+        }
+        ShopRankDTO rank = shopLeaderboard.rankOf(id, metric, Boolean.TRUE.equals(byArea));
+        if(rank == null){
+            return Result.fail("商铺不在排行榜中");
+        }
+        return Result.ok(rank);
+    }
+
+    //通过商铺缓存批量查询，保持ids的顺序
+    private List<Shop> queryShopByIds(List<Long> ids) {
+        Map<Long, Shop> shops = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                missIds -> listByIds(missIds).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)));
+        return new ArrayList<>(shops.values());
+    }
+
+    //多查的一条用于判断是否有下一页，游标为本页最后一个商铺的id
+    private static CursorResult toCursorResult(List<Shop> shops, int pageSize) {
+        boolean hasMore = CursorUtils.trimPage(shops, pageSize);
+        String next = hasMore ? CursorUtils.encode(shops.get(shops.size() - 1).getId()) : null;
+        return new CursorResult(shops, next);
+    }
+
+    //GEOSEARCH查询最近的count个商铺
+    private List<SpatialGridIndex.Hit> searchShopGeo(Integer typeId, double x, double y, int count) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(SystemConstants.SHOP_GEO_RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(count)
+        );
+        if(results == null){
+            return Collections.emptyList();
+        }
+        return results.getContent().stream()
+                .map(result -> new SpatialGridIndex.Hit(Long.parseLong(result.getContent().getName()), result.getDistance().getValue()))
+                .collect(Collectors.toList());
+    }
+
+    //GEOSEARCH不能从指定距离开始，由脚本在redis中过滤掉游标之前的商铺，只返回一页
+    private List<SpatialGridIndex.Hit> searchShopGeoAfter(Integer typeId, double x, double y, int size,
+                                                          double after, Set<Long> seen, int returned) {
+        List<String> args = new ArrayList<>(6 + seen.size());
+        args.add(String.valueOf(x));
+        args.add(String.valueOf(y));
+        args.add(String.valueOf(SystemConstants.SHOP_GEO_RADIUS));
+        args.add(String.valueOf(size));
+        args.add(String.valueOf(after));
+        //之前页返回的商铺基本都还在前面，按已返回数量加一页查询，通常一次就够
+        args.add(String.valueOf(returned + size + seen.size()));
+        seen.forEach(id -> args.add(id.toString()));
+        List<?> values = stringRedisTemplate.execute(NEARBY_SCRIPT, Collections.singletonList(SHOP_GEO_KEY + typeId), args.toArray());
+        if(values == null){
+            return Collections.emptyList();
+        }
+        List<SpatialGridIndex.Hit> hits = new ArrayList<>(values.size() / 2);
+        for (int i = 0; i + 1 < values.size(); i += 2) {
+            hits.add(new SpatialGridIndex.Hit(Long.parseLong(values.get(i).toString()), Double.parseDouble(values.get(i + 1).toString())));
+        }
+        return hits;
+    }
+
+    //通过商铺缓存补齐附近商铺，保持距离顺序
+    private List<Shop> toNearbyShops(List<SpatialGridIndex.Hit> hits) {
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size() * 2);
+        List<Long> ids = new ArrayList<>(hits.size());
+        for (SpatialGridIndex.Hit hit : hits) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        List<Shop> shops = queryShopByIds(ids);
+        for (Shop shop : shops) {
+            shop.setDistance(distanceMap.get(shop.getId()));
+        }
+        return shops;
+    }
+
+    @PostConstruct
+    public void init() {
+        loadShopGeo();
+        loadShopTypeList();
+        //其他实例修改了商铺，消息内容为 实例标识:商铺id
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 2 || instanceId.equals(parts[0])) {
+                return;
+            }
+            applyShopChange(Long.valueOf(parts[1]));
+        }, new ChannelTopic(SHOP_CHANGE_CHANNEL));
+    }
+
+    /**
+     * 将商铺坐标按类型导入redis GEO，已存在的类型跳过
+     */
+    @Override
+    public void loadShopGeo() {
+        //1.查询商铺坐标
+        List<Shop> shops = query().select("id", "type_id", "x", "y").list();
+        //2.按类型分组
+        Map<Long, List<Shop>> map = shops.stream().collect(Collectors.groupingBy(Shop::getTypeId));
+        //3.分批写入redis
+        for (Map.Entry<Long, List<Shop>> entry : map.entrySet()) {
+            String key = SHOP_GEO_KEY + entry.getKey();
+            if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+                continue;
+            }
+            List<RedisGeoCommands.GeoLocation<String>> locations = entry.getValue().stream()
+                    .map(shop -> new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())))
+                    .collect(Collectors.toList());
+            stringRedisTemplate.opsForGeo().add(key, locations);
+        }
+    }
+
+    /**
+     * 将商铺id按类型和排序分数导入redis ZSET，已存在的类型跳过
+     */
+    @Override
+    public void loadShopTypeList() {
+        List<Shop> shops = query().select("id", "type_id", "sold", "score", "comments").list();
+        Map<Long, List<Shop>> map = shops.stream().collect(Collectors.groupingBy(Shop::getTypeId));
+        for (Map.Entry<Long, List<Shop>> entry : map.entrySet()) {
+            String key = shopTypeListKey(entry.getKey());
+            if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+                continue;
+            }
+            writeShopTypeList(key, entry.getValue());
+        }
+    }
+
+    //单个类型的列表不存在时（被删除或修改了排序字段）从数据库重建
+    private String loadShopTypeList(Integer typeId) {
+        String key = shopTypeListKey(typeId.longValue());
+        if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))){
+            return key;
+        }
+        List<Shop> shops = query().select("id", "type_id", "sold", "score", "comments").eq("type_id", typeId).list();
+        writeShopTypeList(key, shops);
+        return key;
+    }
+
+    private void writeShopTypeList(String key, List<Shop> shops) {
+        if(shops.isEmpty()){
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = shops.stream()
+                .map(shop -> new DefaultTypedTuple<>(shop.getId().toString(), rankScore(shop)))
+                .collect(Collectors.toSet());
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+    }
+
+    //按销量、评论数、评分排序时直接使用排行榜的类型榜单，下单、发布笔记时实时更新；按id排序时单独维护，key中带上排序字段
+    private String shopTypeListKey(Long typeId) {
+        if(isLeaderboardRank()){
+            return ShopLeaderboard.typeBoardKey(typeRank, typeId);
+        }
+        return SHOP_TYPE_KEY + typeRank + ":" + typeId;
+    }
+
+    private boolean isLeaderboardRank() {
+        return ShopLeaderboard.METRICS.contains(typeRank);
+    }
+
+    private double rankScore(Shop shop) {
+        switch (typeRank) {
+            case "score":
+                return shop.getScore() == null ? 0 : shop.getScore();
+            case "comments":
+                return shop.getComments() == null ? 0 : shop.getComments();
+            case "id":
+                return shop.getId();
+            default:
+                return shop.getSold() == null ? 0 : shop.getSold();
+        }
+    }
+
+    //商铺类型或排序字段变化时同步类型列表，排行榜的类型榜单由ShopLeaderboard.put同步
+    private void syncShopTypeList(Shop old, Shop shop) {
+        if(shop.getTypeId() == null || isLeaderboardRank()){
+            return;
+        }
+        String member = shop.getId().toString();
+        if(old != null && !old.getTypeId().equals(shop.getTypeId())){
+            stringRedisTemplate.opsForZSet().remove(shopTypeListKey(old.getTypeId()), member);
+        }
+        stringRedisTemplate.opsForZSet().add(shopTypeListKey(shop.getTypeId()), member, rankScore(shop));
+    }
+
+    //同步GEO、类型列表、空间索引、名称索引、联想索引和排行榜
+    private void syncShopIndexes(Shop old, Shop shop) {
+        syncShopGeo(old, shop);
+        syncShopTypeList(old, shop);
+        shopSpatialIndex.put(shop);
+        shopNameIndex.put(shop.getId(), shop.getName());
+        shopSuggestIndex.put(shop);
+        shopLeaderboard.put(shop);
+    }
+
+    //通知其他实例更新进程内的商铺索引，GEO、类型列表等redis中的数据已由本实例同步
+    private void publishShopChange(Long shopId) {
+        stringRedisTemplate.convertAndSend(SHOP_CHANGE_CHANNEL, instanceId + ":" + shopId);
+    }
+
+    //从数据库读取已提交的最新数据更新本实例的进程内索引，多条变更按到达顺序应用后与数据库一致
+    private void applyShopChange(Long shopId) {
+        Shop shop = getById(shopId);
+        if(shop == null){
+            shopSpatialIndex.remove(shopId);
+            shopNameIndex.remove(shopId);
+            shopSuggestIndex.remove(shopId);
+            return;
+        }
+        shopSpatialIndex.put(shop);
+        shopNameIndex.put(shop.getId(), shop.getName());
+        shopSuggestIndex.put(shop);
+    }
+
+    //商铺类型或坐标变化时同步GEO
+    private void syncShopGeo(Shop old, Shop shop) {
+        if(shop.getTypeId() == null || shop.getX() == null || shop.getY() == null){
+            return;
+        }
+        String member = shop.getId().toString();
+        if(old != null && !old.getTypeId().equals(shop.getTypeId())){
+            stringRedisTemplate.opsForGeo().remove(SHOP_GEO_KEY + old.getTypeId(), member);
+        }
+        stringRedisTemplate.opsForGeo().add(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+    }
+
+    //updateById只更新非空字段，用旧数据补齐得到更新后的商铺
+    private static Shop mergeShop(Shop old, Shop shop) {
+        Shop merged = new Shop();
+        merged.setId(old.getId());
+        merged.setName(shop.getName() != null ? shop.getName() : old.getName());
+        merged.setTypeId(shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId());
+        merged.setArea(shop.getArea() != null ? shop.getArea() : old.getArea());
+        merged.setX(shop.getX() != null ? shop.getX() : old.getX());
+        merged.setY(shop.getY() != null ? shop.getY() : old.getY());
+        merged.setSold(shop.getSold() != null ? shop.getSold() : old.getSold());
+        merged.setComments(shop.getComments() != null ? shop.getComments() : old.getComments());
+        merged.setScore(shop.getScore() != null ? shop.getScore() : old.getScore());
+        return merged;
+    }
 }
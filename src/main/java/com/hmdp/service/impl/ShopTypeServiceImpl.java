@@ -1,22 +1,29 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import org.springframework.beans.factory.annotation.Autowired;
+import com.hmdp.utils.JsonSnapshot;
+import com.hmdp.utils.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
-import static com.hmdp.utils.RedisConstants.CACHE_TYPE_LIST;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_LIST_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_LIST_VERSION_KEY;
 
 /**
  * <p>
@@ -26,40 +33,133 @@ import static com.hmdp.utils.RedisConstants.CACHE_TYPE_LIST;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //商铺类型列表的响应快照，版本号与redis中的版本号一致
+    private volatile JsonSnapshot snapshot;
+
+    @PostConstruct
+    public void init() {
+        //其他实例刷新后通过发布订阅通知，消息内容为新的版本号
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+            reload(version);
+        }, new ChannelTopic(SHOP_TYPE_LIST_CHANNEL));
+    }
+
     /**
-     * 查询商铺类型列表
-     * @return 商铺类型列表
+     * 查询商铺类型列表，直接返回内存中的快照，不访问redis也不做序列化
+     * @return 序列化好的商铺类型列表
      */
     @Override
-    public Result queryTypeList() {
-        String key = CACHE_TYPE_LIST;
-        //1.从redis中查询商铺类型缓存
-        List<String> typeList = stringRedisTemplate.opsForList().range(key, 0, -1);
-        //2.如果存在，直接返回
-        if(typeList != null && !typeList.isEmpty()){
-            //将typeList转换为List<ShopType>并返回
-            List<ShopType> shopTypes = typeList.stream()
-                    .map(json -> JSONUtil.toBean(json, ShopType.class))
-                    .collect(Collectors.toList());
-            return Result.ok(shopTypes);
+    public JsonSnapshot queryTypeListSnapshot() {
+        JsonSnapshot current = snapshot;
+        if(current != null){
+            return current;
         }
-        //3.不存在，查询数据库
-        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
-        //4.不存在，返回商铺类型不存在
-        if(shopTypeList == null || shopTypeList.isEmpty()){
+        return reload(currentVersion());
+    }
+
+    /**
+     * 商铺类型变更后调用，递增版本号并通知所有实例重新加载
+     */
+    @Override
+    public void refreshTypeList() {
+        Long version = stringRedisTemplate.opsForValue().increment(SHOP_TYPE_LIST_VERSION_KEY);
+        reload(version);
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_LIST_CHANNEL, version.toString());
+    }
+
+    /**
+     * 新增商铺类型
+     * @param shopType 商铺类型
+     * @return 商铺类型id
+     */
+    @Override
+    @Transactional
+    public Result saveShopType(ShopType shopType) {
+        save(shopType);
+        //事务提交后再刷新，避免其它实例读到未提交前的数据
+        TransactionUtils.afterCommit(this::refreshTypeList);
+        return Result.ok(shopType.getId());
+    }
+
+    /**
+     * 修改商铺类型的名称、图标、排序
+     * @param shopType 商铺类型
+     * @return 无
+     */
+    @Override
+    @Transactional
+    public Result updateShopType(ShopType shopType) {
+        if(shopType.getId() == null){
+            return Result.fail("商铺类型id不能为空");
+        }
+        if(!updateById(shopType)){
             return Result.fail("商铺类型不存在");
         }
-        //5.存在，写入redis缓存
-        List<String> jsonList = shopTypeList.stream()
-                .map(JSONUtil::toJsonStr)
-                .collect(Collectors.toList());
-        stringRedisTemplate.opsForList().rightPushAll(key, jsonList);
-        stringRedisTemplate.expire(key, CACHE_SHOP_TTL, TimeUnit.HOURS);
-        //6.返回
-        return Result.ok(shopTypeList);
+        TransactionUtils.afterCommit(this::refreshTypeList);
+        return Result.ok();
+    }
+
+    /**
+     * 删除商铺类型
+     * @param id 商铺类型id
+     * @return 无
+     */
+    @Override
+    @Transactional
+    public Result deleteShopType(Long id) {
+        if(!removeById(id)){
+            return Result.fail("商铺类型不存在");
+        }
+        TransactionUtils.afterCommit(this::refreshTypeList);
+        return Result.ok();
+    }
+
+    /**
+     * 发布订阅不保证送达，定时比对版本号兜底
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void syncTypeListVersion() {
+        JsonSnapshot current = snapshot;
+        long version = currentVersion();
+        if(current != null && current.getVersion() != version){
+            reload(version);
+        }
+    }
+
+    //版本号不同才重新加载，redis数据丢失后版本号可能变小，不能只比较大小
+    private synchronized JsonSnapshot reload(long version) {
+        JsonSnapshot current = snapshot;
+        if(current != null && current.getVersion() == version){
+            return current;
+        }
+        //1.查询数据库
+        List<ShopType> shopTypeList = query().orderByAsc("sort").list();
+        //2.不存在，返回商铺类型不存在，失败结果不保存为快照，下次请求重新查询
+        if(shopTypeList.isEmpty()){
+            return JsonSnapshot.of(version, objectMapper, Result.fail("商铺类型不存在"));
+        }
+        //3.生成新的快照
+        current = JsonSnapshot.of(version, objectMapper, Result.ok(Collections.unmodifiableList(shopTypeList)));
+        snapshot = current;
+        log.debug("商铺类型快照已更新，版本{}，ETag {}", version, current.getEtag());
+        return current;
+    }
+
+    private long currentVersion() {
+        String version = stringRedisTemplate.opsForValue().get(SHOP_TYPE_LIST_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
     }
 }
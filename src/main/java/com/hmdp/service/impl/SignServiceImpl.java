@@ -0,0 +1,250 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SignDTO;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.service.ISignService;
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.BitFieldSubCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SIGN_ARCHIVE_KEY;
+import static com.hmdp.utils.RedisConstants.USER_SIGN_KEY;
+
+/**
+ * <p>
+ *  服务实现类
+ * </p>
+ * 每个用户每月一个位图 sign:{userId}:{yyyyMM}，第d天对应偏移量d-1，一个月最多4字节。
+ * 超过保留期的月份由定时任务合并到tb_sign，每个用户每月一行
+ */
+@Slf4j
+@Service
+public class SignServiceImpl extends ServiceImpl<SignMapper, Sign> implements ISignService {
+    private static final DateTimeFormatter MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+    //BITFIELD GET u31 0：一次取出整月的签到，第d天对应从高到低第d位
+    private static final BitFieldSubCommands MONTH_BITS = BitFieldSubCommands.create()
+            .get(BitFieldSubCommands.BitFieldType.unsigned(31)).valueAt(0);
+    //每次归档的key数量
+    private static final int ARCHIVE_BATCH = 500;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    //redis中保留的月数（包含本月），更早的月份归档到tb_sign
+    @Value("${hmdp.sign.keep-months:2}")
+    private int keepMonths;
+
+    @Override
+    public Result sign() {
+        // 1.获取登录用户和今天的日期
+        Long userId = UserHolder.getUser().getId();
+        LocalDate today = LocalDate.now();
+        // 2.SETBIT返回原来的值，已签到时不重复签到
+        Boolean signed = stringRedisTemplate.opsForValue()
+                .setBit(signKey(userId, YearMonth.from(today)), today.getDayOfMonth() - 1, true);
+        if (Boolean.TRUE.equals(signed)) {
+            return Result.fail("今天已经签到过了");
+        }
+        // 3.返回签到后的统计
+        return Result.ok(stats(userId, today));
+    }
+
+    @Override
+    public Result signCount() {
+        return Result.ok(stats(UserHolder.getUser().getId(), LocalDate.now()));
+    }
+
+    /**
+     * 把保留期之前的签到位图合并到tb_sign后删除，多实例部署时只有拿到锁的实例执行
+     */
+    @Scheduled(cron = "${hmdp.sign.archive-cron:0 0 3 1 * ?}")
+    public void archive() {
+        RLock lock = redissonClient.getLock(LOCK_SIGN_ARCHIVE_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            YearMonth before = YearMonth.now().minusMonths(keepMonths - 1);
+            List<String> keys = new ArrayList<>(ARCHIVE_BATCH);
+            int[] total = {0};
+            // SCAN遍历所有签到位图，上次失败未归档的月份也会在这次归档
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                ScanOptions options = ScanOptions.scanOptions().match(USER_SIGN_KEY + "*").count(1000).build();
+                try (Cursor<byte[]> cursor = connection.scan(options)) {
+                    while (cursor.hasNext()) {
+                        String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                        YearMonth month = monthOf(key);
+                        if (month == null || !month.isBefore(before)) {
+                            continue;
+                        }
+                        keys.add(key);
+                        if (keys.size() == ARCHIVE_BATCH) {
+                            total[0] += archive(keys);
+                            keys.clear();
+                        }
+                    }
+                }
+                return null;
+            });
+            if (!keys.isEmpty()) {
+                total[0] += archive(keys);
+            }
+            log.debug("签到归档完成，共{}个用户月", total[0]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 一次pipeline读取一批位图，一条语句合并到tb_sign，成功后删除
+    private int archive(List<String> keys) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.bitfield(key, MONTH_BITS);
+            }
+            return null;
+        });
+        List<Sign> signs = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            int bits = firstValue(results.get(i));
+            if (bits == 0) {
+                continue;
+            }
+            String key = keys.get(i);
+            YearMonth month = monthOf(key);
+            signs.add(new Sign()
+                    .setUserId(Long.valueOf(key.substring(USER_SIGN_KEY.length(), key.lastIndexOf(':'))))
+                    .setYear(month.getYear())
+                    .setMonth(month.getMonthValue())
+                    .setDate(month.atDay(1))
+                    .setSignBits(bits));
+        }
+        if (!signs.isEmpty()) {
+            baseMapper.mergeMonths(signs);
+        }
+        stringRedisTemplate.delete(keys);
+        return signs.size();
+    }
+
+    // 本月签到天数、今天是否签到和连续签到天数，本月和上个月的位图一次pipeline读取
+    private SignDTO stats(Long userId, LocalDate today) {
+        YearMonth month = YearMonth.from(today);
+        YearMonth lastMonth = month.minusMonths(1);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.bitfield(signKey(userId, month), MONTH_BITS);
+            conn.bitfield(signKey(userId, lastMonth), MONTH_BITS);
+            return null;
+        });
+        int bits = firstValue(results.get(0));
+        int lastMonthBits = firstValue(results.get(1));
+        int day = today.getDayOfMonth();
+        boolean signedToday = isSigned(bits, day);
+        int monthCount = Integer.bitCount(bits);
+        // 从今天（今天未签到从昨天）往前数，上个月已经读取，更早的月份查归档。
+        // keep-months为1时上个月在月初就会归档，redis中为0时也要查归档，否则跨月的连续签到会中断
+        int streak = streak(month, bits, signedToday ? day : day - 1,
+                m -> !m.equals(lastMonth) ? monthBits(userId, m)
+                        : lastMonthBits != 0 ? lastMonthBits : archivedBits(userId, m));
+        return new SignDTO(signedToday, streak, monthCount);
+    }
+
+    /**
+     * 从某月的某一天往前数连续签到的天数，数到1号时接着数上个月
+     * @param month 开始的月份
+     * @param bits 开始月份的位图
+     * @param day 从这一天开始往前数，为0时直接从上个月最后一天开始
+     * @param earlierBits 更早月份的位图
+     * @return 连续签到天数
+     */
+    static int streak(YearMonth month, int bits, int day, ToIntFunction<YearMonth> earlierBits) {
+        int streak = 0;
+        int d = day;
+        YearMonth m = month;
+        while (true) {
+            while (d >= 1 && isSigned(bits, d)) {
+                streak++;
+                d--;
+            }
+            if (d > 0) {
+                break;
+            }
+            m = m.minusMonths(1);
+            bits = earlierBits.applyAsInt(m);
+            d = m.lengthOfMonth();
+            if (bits == 0) {
+                break;
+            }
+        }
+        return streak;
+    }
+
+    // 更早月份的位图：还没归档时在redis中，否则在tb_sign中
+    private int monthBits(Long userId, YearMonth month) {
+        List<Long> values = stringRedisTemplate.opsForValue().bitField(signKey(userId, month), MONTH_BITS);
+        int bits = values == null || values.isEmpty() ? 0 : values.get(0).intValue();
+        return bits != 0 ? bits : archivedBits(userId, month);
+    }
+
+    // tb_sign中归档的位图
+    private int archivedBits(Long userId, YearMonth month) {
+        Sign sign = query()
+                .eq("user_id", userId)
+                .eq("year", month.getYear())
+                .eq("month", month.getMonthValue())
+                .one();
+        return sign == null ? 0 : sign.getSignBits();
+    }
+
+    /**
+     * 位图中某一天是否签到，BITFIELD GET u31 0 取出的值中第d天对应从高到低第d位
+     */
+    static boolean isSigned(int bits, int day) {
+        return (bits >>> (31 - day) & 1) == 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int firstValue(Object result) {
+        List<Long> values = (List<Long>) result;
+        return values == null || values.isEmpty() || values.get(0) == null ? 0 : values.get(0).intValue();
+    }
+
+    private static String signKey(Long userId, YearMonth month) {
+        return USER_SIGN_KEY + userId + ":" + month.format(MONTH_FORMAT);
+    }
+
+    // sign:{userId}:{yyyyMM} 中的月份，格式不对返回null
+    private static YearMonth monthOf(String key) {
+        int i = key.lastIndexOf(':');
+        try {
+            return i < 0 ? null : YearMonth.parse(key.substring(i + 1), MONTH_FORMAT);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -1,10 +1,27 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.Result;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.mapper.UserInfoMapper;
 import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_USER_INFO_KEY;
 
 /**
  * <p>
@@ -17,4 +34,96 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    @Resource
+    private CacheClient cacheClient;
+
+    /**
+     * 查询用户详情，没有详情的用户也会缓存空值
+     * @param userId 用户id
+     * @return 用户详情，没有详情时返回空
+     */
+    @Override
+    public Result queryUserInfo(Long userId) {
+        UserInfo info = cacheClient.query(CACHE_USER_INFO_KEY, userId, UserInfo.class, this::getById);
+        if (info == null) {
+            // 没有详情，应该是第一次查看详情
+            return Result.ok();
+        }
+        // 缓存每次命中都反序列化出新对象，可以直接修改
+        return Result.ok(hideTime(info));
+    }
+
+    /**
+     * 批量查询用户详情，一次MGET，未命中的一次查库
+     * @param ids 用户id
+     * @return 与ids顺序一致的用户详情，没有详情的用户不包含在内
+     */
+    @Override
+    public Result queryUserInfos(List<Long> ids) {
+        //1.校验参数
+        if (ids == null || ids.isEmpty()) {
+            return Result.ok(new ArrayList<>());
+        }
+        if (ids.size() > SystemConstants.USER_INFO_BATCH_SIZE) {
+            return Result.fail("一次最多查询" + SystemConstants.USER_INFO_BATCH_SIZE + "个用户");
+        }
+        //2.批量查询缓存，未命中的查库并写回
+        List<UserInfo> infos = cacheClient.queryBatch(CACHE_USER_INFO_KEY, new LinkedHashSet<>(ids), UserInfo.class,
+                missIds -> listByIds(missIds).stream()
+                        .collect(Collectors.toMap(UserInfo::getUserId, Function.identity())))
+                .values().stream()
+                .map(UserInfoServiceImpl::hideTime)
+                .collect(Collectors.toList());
+        return Result.ok(infos);
+    }
+
+    /**
+     * 修改当前用户的城市、个人介绍、性别、生日，没有详情时新增
+     * @param info 新的详情，为空的字段不修改
+     * @return 无
+     */
+    @Override
+    @Transactional
+    public Result updateUserInfo(UserInfo info) {
+        //1.校验参数
+        if (info.getCity() == null && info.getIntroduce() == null
+                && info.getGender() == null && info.getBirthday() == null) {
+            return Result.fail("没有需要修改的内容");
+        }
+        if (StrUtil.length(info.getIntroduce()) > SystemConstants.INTRODUCE_MAX_LENGTH) {
+            return Result.fail("个人介绍不能超过" + SystemConstants.INTRODUCE_MAX_LENGTH + "个字符");
+        }
+        Long userId = UserHolder.getUser().getId();
+        //2.更新数据库，粉丝数、积分等字段不允许用户修改
+        boolean success = update()
+                .set(info.getCity() != null, "city", info.getCity())
+                .set(info.getIntroduce() != null, "introduce", info.getIntroduce())
+                .set(info.getGender() != null, "gender", info.getGender())
+                .set(info.getBirthday() != null, "birthday", info.getBirthday())
+                .eq("user_id", userId)
+                .update();
+        if (!success) {
+            //3.没有详情，新增一条
+            save(new UserInfo()
+                    .setUserId(userId)
+                    .setCity(info.getCity())
+                    .setIntroduce(info.getIntroduce())
+                    .setGender(info.getGender())
+                    .setBirthday(info.getBirthday()));
+        }
+        //4.事务提交后再删除缓存，避免提交前被其它请求用旧数据重建
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                cacheClient.invalidate(CACHE_USER_INFO_KEY, userId);
+            }
+        });
+        return Result.ok();
+    }
+
+    private static UserInfo hideTime(UserInfo info) {
+        info.setCreateTime(null);
+        info.setUpdateTime(null);
+        return info;
+    }
 }
@@ -3,6 +3,7 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
@@ -10,19 +11,27 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.LoginSessionCache;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedLoginToken;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -38,6 +47,19 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedLoginToken signedLoginToken;
+
+    //登录令牌：redis（会话保存在redis） / signed（签名令牌）
+    @Value("${hmdp.login.mode:redis}")
+    private String loginMode;
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         //1.校验手机号
@@ -83,23 +105,94 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createUserWithPhone(phone);
         }
 
-        //7.保存用户信息到redis中
-        //7.1.随机生成token，作为登录令牌
-        String token = UUID.randomUUID().toString(true);
-        //7.2.将User对象转为Hash存储
         UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);//注意这里是BeanUtil不是BeanUtils
+        //7.signed模式签发令牌，不写redis
+        if("signed".equals(loginMode)){
+            return Result.ok(signedLoginToken.issue(userDTO));
+        }
+        //8.保存用户信息到redis中
+        //8.1.随机生成token，作为登录令牌
+        String token = UUID.randomUUID().toString(true);
+        //8.2.将User对象转为Hash存储
         Map<String, Object> userMap = new HashMap<>();
         userMap.put("id", userDTO.getId().toString());
         userMap.put("nickName", userDTO.getNickName());
         userMap.put("icon", userDTO.getIcon());
-        //7.3.存储
+        //8.3.存储
         stringRedisTemplate.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + token, userMap);
-        //7.4.设置token有效期
+        //8.4.设置token有效期
         stringRedisTemplate.expire(RedisConstants.LOGIN_USER_KEY + token, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
-        //8.返回token
+        //8.5.记录用户的token，修改资料时同步更新会话
+        String tokensKey = RedisConstants.LOGIN_USER_TOKENS_KEY + userDTO.getId();
+        stringRedisTemplate.opsForSet().add(tokensKey, token);
+        stringRedisTemplate.expire(tokensKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.SECONDS);
+        //9.返回token
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        if(StrUtil.isBlank(token)){
+            return Result.ok();
+        }
+        if("signed".equals(loginMode)){
+            signedLoginToken.revoke(token);
+        }else{
+            loginSessionCache.invalidate(token);
+        }
+        return Result.ok();
+    }
+
+    /**
+     * 批量查询用户的昵称和头像，一次MGET查缓存，未命中的一次IN查询补齐
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，不存在的用户不包含在内
+     */
+    @Override
+    public Map<Long, UserDTO> getProfiles(Collection<Long> ids) {
+        return cacheClient.queryBatch(RedisConstants.CACHE_USER_PROFILE_KEY, ids, UserDTO.class,
+                missIds -> listByIds(missIds).stream()
+                        .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                        .collect(Collectors.toMap(UserDTO::getId, Function.identity())));
+    }
+
+    /**
+     * 修改当前用户的昵称和头像
+     * @param profile 新的昵称、头像，为空的字段不修改
+     * @return 结果
+     */
+    @Override
+    public Result updateProfile(UserDTO profile) {
+        //1.校验参数
+        if(StrUtil.isBlank(profile.getNickName()) && StrUtil.isBlank(profile.getIcon())){
+            return Result.fail("昵称和头像不能都为空");
+        }
+        Long userId = UserHolder.getUser().getId();
+        //2.更新数据库
+        boolean success = update()
+                .set(StrUtil.isNotBlank(profile.getNickName()), "nick_name", profile.getNickName())
+                .set(StrUtil.isNotBlank(profile.getIcon()), "icon", profile.getIcon())
+                .eq("id", userId)
+                .update();
+        if(!success){
+            return Result.fail("用户不存在");
+        }
+        //3.删除缓存
+        cacheClient.invalidate(RedisConstants.CACHE_USER_PROFILE_KEY, userId);
+        //4.更新登录会话，signed模式的令牌重新登录后才会更新
+        if(!"signed".equals(loginMode)){
+            Map<String, String> fields = new HashMap<>();
+            if(StrUtil.isNotBlank(profile.getNickName())){
+                fields.put("nickName", profile.getNickName());
+            }
+            if(StrUtil.isNotBlank(profile.getIcon())){
+                fields.put("icon", profile.getIcon());
+            }
+            loginSessionCache.update(userId, fields);
+        }
+        return Result.ok();
+    }
+
     private User createUserWithPhone(String phone){
         User user = new User();
         user.setPhone(phone);
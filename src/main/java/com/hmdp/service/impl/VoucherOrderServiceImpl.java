@@ -1,15 +1,17 @@
 package com.hmdp.service.impl;
 
 import com.hmdp.dto.Result;
-import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.Voucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopLeaderboard;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.TransactionUtils;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -35,9 +37,15 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private IVoucherService voucherService;
+
     @Resource
     private RedisIdWorker redisIdWorker;
 
+    @Resource
+    private ShopLeaderboard shopLeaderboard;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
@@ -46,8 +54,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Override
     public Result secKill(Long voucherId) {
-        //查询优惠券是否存在
-        SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+        //查询优惠券是否存在，同时查出所属商铺用于累加销量
+        Voucher voucher = voucherService.querySeckillVoucher(voucherId);
         if(voucher == null){
             return Result.fail("优惠券不存在");
         }
@@ -79,7 +87,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
             //获取代理对象(因为事务是通过代理对象来实现的)
             IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
             //执行下单
-            return proxy.createVoucherOrder(voucherId);
+            return proxy.createVoucherOrder(voucherId, voucher.getShopId());
         } finally {
             //释放锁
             lock.unlock();
@@ -87,7 +95,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     @Transactional
-    public Result createVoucherOrder(Long voucherId) {
+    public Result createVoucherOrder(Long voucherId, Long shopId) {
         //一人一单
         Long userId = UserHolder.getUser().getId();
         int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
@@ -114,6 +122,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         voucherOrder.setUserId(userId);
         //保存订单
         save(voucherOrder);
+        //事务提交后商铺销量加一，排行榜实时更新，数据库由定时任务批量回写
+        TransactionUtils.afterCommit(() -> shopLeaderboard.incr(shopId, ShopLeaderboard.SOLD, 1));
         //返回订单id
         return Result.ok(orderId);
     }
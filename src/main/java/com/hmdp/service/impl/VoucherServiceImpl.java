@@ -35,6 +35,16 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         return Result.ok(vouchers);
     }
 
+    /**
+     * 查询秒杀券的库存、秒杀时间和所属商铺
+     * @param voucherId 优惠券id
+     * @return 秒杀券，不存在时返回null
+     */
+    @Override
+    public Voucher querySeckillVoucher(Long voucherId) {
+        return getBaseMapper().querySeckillVoucher(voucherId);
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -0,0 +1,208 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.dto.FeedStats;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 关注的人发布的博文收件箱，推拉结合
+ * <p>
+ * 普通作者的博文发布后异步推送到每个粉丝的 feed:{userId}，分数为发布时间戳，收件箱只保留最新的inboxSize条。
+ * 粉丝数不低于pushThreshold的作者只写入自己的发件箱 feed:outbox:{authorId}，
+ * 读取时把收件箱和关注的这些作者的发件箱做k路归并。按分数倒序滚动分页，期间有新博文也不会重复或遗漏
+ */
+@Slf4j
+@Component
+public class BlogFeed {
+    //每次从数据库读取的粉丝数，也是每个pipeline写入的收件箱数
+    private static final int FAN_OUT_BATCH = 1000;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private FollowGraph followGraph;
+
+    @Resource
+    private FollowBitmapIndex followBitmapIndex;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    //每个收件箱、发件箱保留的博文数量
+    @Value("${hmdp.feed.inbox-size:1000}")
+    private int inboxSize;
+
+    //粉丝数不低于该值的作者不再推送，改为读取时拉取
+    @Value("${hmdp.feed.push-threshold:5000}")
+    private long pushThreshold;
+
+    //统计写放大和读取耗时
+    private final LongAdder published = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder outboxesRead = new LongAdder();
+    private final LongAdder readNanos = new LongAdder();
+    private final LongAccumulator maxReadNanos = new LongAccumulator(Math::max, 0);
+
+    //队列满时由发布博文的线程自己推送，不丢弃
+    private final ExecutorService fanOutExecutor = new ThreadPoolExecutor(
+            2, 2, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(10000),
+            r -> new Thread(r, "blog-feed-fan-out"),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    @PreDestroy
+    public void destroy() {
+        fanOutExecutor.shutdown();
+    }
+
+    /**
+     * 异步投递博文：粉丝少的作者推送到所有粉丝的收件箱，粉丝多的作者写入发件箱
+     * @param blog 已保存的博文，需要包含id、userId、createTime
+     */
+    public void publish(Blog blog) {
+        fanOutExecutor.execute(() -> {
+            try {
+                deliver(blog);
+            } catch (Exception e) {
+                log.error("投递博文{}失败", blog.getId(), e);
+            }
+        });
+    }
+
+    /**
+     * 按时间倒序滚动读取收件箱
+     * @param userId 用户id
+     * @param max 上一页返回的最小时间戳，第一页传Double.POSITIVE_INFINITY
+     * @param offset 上一页返回的offset，第一页传0
+     * @param count 每页数量
+     * @return 本页博文id及下一页参数
+     */
+    public ZSetScroll scroll(Long userId, double max, int offset, int count) {
+        long begin = System.nanoTime();
+        //1.收件箱，加上关注的拉模式作者的发件箱
+        List<String> keys = new ArrayList<>();
+        keys.add(FEED_KEY + userId);
+        //关注集合与拉模式作者集合SINTER，不需要查库
+        followGraph.intersect(userId, FEED_PULL_AUTHORS_KEY).forEach(authorId -> keys.add(FEED_OUTBOX_KEY + authorId));
+        //2.只有收件箱时直接分页，否则k路归并
+        ZSetScroll scroll = keys.size() == 1
+                ? ZSetScroll.scroll(stringRedisTemplate, keys.get(0), max, offset, count)
+                : ZSetScroll.merge(stringRedisTemplate, keys, max, offset, count);
+        long nanos = System.nanoTime() - begin;
+        reads.increment();
+        outboxesRead.add(keys.size() - 1);
+        readNanos.add(nanos);
+        maxReadNanos.accumulate(nanos);
+        return scroll;
+    }
+
+    /**
+     * 推拉结合的运行统计
+     */
+    public FeedStats stats() {
+        FeedStats stats = new FeedStats();
+        stats.setPushThreshold(pushThreshold);
+        stats.setPullAuthors(stringRedisTemplate.opsForSet().size(FEED_PULL_AUTHORS_KEY));
+        long publishedCount = published.sum();
+        long readCount = reads.sum();
+        stats.setPublished(publishedCount);
+        stats.setWrites(writes.sum());
+        stats.setWriteAmplification(publishedCount == 0 ? 0 : (double) writes.sum() / publishedCount);
+        stats.setReads(readCount);
+        stats.setAvgOutboxes(readCount == 0 ? 0 : (double) outboxesRead.sum() / readCount);
+        stats.setAvgReadMicros(readCount == 0 ? 0 : readNanos.sum() / 1000.0 / readCount);
+        stats.setMaxReadMicros(maxReadNanos.get() / 1000);
+        return stats;
+    }
+
+    private void deliver(Blog blog) {
+        Long authorId = blog.getUserId();
+        String member = blog.getId().toString();
+        double score = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        published.increment();
+        long followers = followBitmapIndex.isReady()
+                ? followBitmapIndex.followerCount(authorId)
+                : followGraph.counts(authorId).getFollowers();
+        if (followers >= pushThreshold) {
+            //拉模式：只写一次发件箱
+            String outbox = FEED_OUTBOX_KEY + authorId;
+            stringRedisTemplate.opsForSet().add(FEED_PULL_AUTHORS_KEY, authorId.toString());
+            stringRedisTemplate.opsForZSet().add(outbox, member, score);
+            stringRedisTemplate.opsForZSet().removeRange(outbox, 0, -inboxSize - 1);
+            writes.increment();
+            log.debug("博文{}写入发件箱，作者粉丝数{}", blog.getId(), followers);
+            return;
+        }
+        //粉丝数降到阈值以下后恢复推送，作者仍留在拉模式集合中，发件箱中已有的博文继续被拉取
+        fanOut(blog.getId(), authorId, member, score);
+    }
+
+    private void fanOut(Long blogId, Long authorId, String member, double score) {
+        //启用关注位图时直接按批取出粉丝id，不查库
+        if (followBitmapIndex.isReady()) {
+            int[] total = {0};
+            followBitmapIndex.forEachFollowers(authorId, FAN_OUT_BATCH, batch -> {
+                pushToInboxes(batch, member, score);
+                total[0] += batch.length;
+            });
+            log.debug("博文{}已推送到{}个粉丝的收件箱", blogId, total[0]);
+            return;
+        }
+        long lastId = 0;
+        int total = 0;
+        while (true) {
+            //按主键分批读取粉丝，走follow_user_id索引
+            List<Follow> follows = followMapper.selectList(Wrappers.<Follow>query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", authorId)
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + FAN_OUT_BATCH));
+            if (follows.isEmpty()) {
+                break;
+            }
+            pushToInboxes(follows.stream().mapToLong(Follow::getUserId).toArray(), member, score);
+            total += follows.size();
+            lastId = follows.get(follows.size() - 1).getId();
+            if (follows.size() < FAN_OUT_BATCH) {
+                break;
+            }
+        }
+        log.debug("博文{}已推送到{}个粉丝的收件箱", blogId, total);
+    }
+
+    //一个pipeline写入一批粉丝的收件箱
+    private void pushToInboxes(long[] userIds, String member, double score) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (long userId : userIds) {
+                String key = FEED_KEY + userId;
+                conn.zAdd(key, score, member);
+                conn.zRemRange(key, 0, -inboxSize - 1);
+            }
+            return null;
+        });
+        writes.add(userIds.length);
+    }
+}
@@ -1,30 +1,41 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.*;
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
 
 @Component
 public class CacheClient {
     private StringRedisTemplate stringRedisTemplate;
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private CachePolicyRegistry cachePolicyRegistry;
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CachePolicyRegistry cachePolicyRegistry) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cachePolicyRegistry = cachePolicyRegistry;
     }
 
     //线程池用于缓存重建
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
+    //一级缓存，key前缀 -> 进程内LRU缓存，缓存的是redis中的原始字符串，每次命中都会反序列化出新对象，调用方可以放心修改
+    private final Map<String, Cache<String, String>> l1Caches = new ConcurrentHashMap<>();
+
     /**
      * 写入缓存
      * @param key key
@@ -33,16 +44,174 @@ public class CacheClient {
      * @param unit 时间单位
      */
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        stringRedisTemplate.opsForValue().set(key, CacheCodec.JSON.encode(value), time, unit);
     }
 
     public void setWithLogicalExpireTime(String key, Object value, Long time, TimeUnit unit){
-        //设置逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        setWithLogicalExpireTime(null, key, value, adhocPolicy(CacheStrategy.LOGICAL_EXPIRE, time, unit, null));
+    }
+
+    /**
+     * 按key前缀配置的策略查询缓存，策略、有效期、一级缓存和序列化方式都来自application.yaml中的hmdp.cache
+     * @param keyPrefix key前缀
+     * @param id id
+     * @param type 返回类型
+     * @param dbFallback 数据库查询函数
+     * @param <R> 返回类型泛型
+     * @param <ID> id类型泛型
+     * @return R
+     */
+    public <R, ID> R query(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback){
+        CachePolicy policy = cachePolicyRegistry.get(keyPrefix);
+        switch (policy.getStrategy()) {
+            case MUTEX:
+                return doQueryWithMutex(keyPrefix, id, type, dbFallback, policy);
+            case LOGICAL_EXPIRE:
+                return doQueryWithLogicalExpireTime(keyPrefix, id, type, dbFallback, policy, true);
+            default:
+                return doQueryWithPassThrough(keyPrefix, id, type, dbFallback, policy);
+        }
+    }
+
+    /**
+     * 批量查询缓存，一次MGET查询所有未命中一级缓存的key，再一次批量查询数据库补齐缺失的数据并用pipeline写回
+     * @param keyPrefix key前缀
+     * @param ids id集合
+     * @param type 返回类型
+     * @param dbFallback 数据库批量查询函数，返回id -> 数据
+     * @param <R> 返回类型泛型
+     * @param <ID> id类型泛型
+     * @return 与ids顺序一致的id -> 数据，不存在的id不包含在内
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type, Function<Collection<ID>, Map<ID, R>> dbFallback){
+        if(ids.isEmpty()){
+            return Collections.emptyMap();
+        }
+        CachePolicy policy = cachePolicyRegistry.get(keyPrefix);
+        CacheCodec codec = policy.getCodec();
+        boolean logicalExpire = policy.getStrategy() == CacheStrategy.LOGICAL_EXPIRE;
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        //1.查询一级缓存
+        Cache<String, String> l1 = l1Cache(keyPrefix, policy);
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            String json = l1 == null ? null : l1.get(keyPrefix + id, false);
+            if(json == null){
+                remoteIds.add(id);
+            } else {
+                decodeInto(found, id, json, type, codec, logicalExpire);
+            }
+        }
+        //2.一次MGET查询redis
+        List<ID> missIds = new ArrayList<>();
+        if(!remoteIds.isEmpty()){
+            List<String> keys = new ArrayList<>(remoteIds.size());
+            remoteIds.forEach(id -> keys.add(keyPrefix + id));
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < remoteIds.size(); i++) {
+                ID id = remoteIds.get(i);
+                String json = values == null ? null : values.get(i);
+                if(json == null || !decodeInto(found, id, json, type, codec, logicalExpire)){
+                    missIds.add(id);
+                    continue;
+                }
+                if(l1 != null){
+                    l1.put(keyPrefix + id, json);
+                }
+            }
+        }
+        //3.一次查询数据库补齐，并用pipeline写回缓存，不存在的写入空值
+        if(!missIds.isEmpty()){
+            Map<ID, R> loaded = dbFallback.apply(missIds);
+            Map<String, String> writes = new LinkedHashMap<>(missIds.size() * 2);
+            Map<String, Long> ttls = new HashMap<>(missIds.size() * 2);
+            for (ID id : missIds) {
+                R r = loaded.get(id);
+                String key = keyPrefix + id;
+                if(r == null){
+                    writes.put(key, "");
+                    ttls.put(key, policy.getNullTtl().getSeconds());
+                    continue;
+                }
+                found.put(id, r);
+                if(logicalExpire){
+                    RedisData redisData = new RedisData();
+                    redisData.setData(r);
+                    redisData.setExpireTime(LocalDateTime.now().plusSeconds(CachePolicyRegistry.ttlSeconds(policy)));
+                    writes.put(key, codec.encode(redisData));
+                } else {
+                    writes.put(key, codec.encode(r));
+                    ttls.put(key, CachePolicyRegistry.ttlSeconds(policy));
+                }
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                writes.forEach((key, json) -> {
+                    Long ttl = ttls.get(key);
+                    conn.set(key, json, ttl == null ? Expiration.persistent() : Expiration.seconds(ttl), RedisStringCommands.SetOption.upsert());
+                });
+                return null;
+            });
+            if(l1 != null){
+                writes.forEach(l1::put);
+            }
+        }
+        //4.按传入顺序返回
+        Map<ID, R> result = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if(r != null){
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
+    //解析批量查询得到的缓存值，空值视为命中但不放入结果，逻辑过期已过期的视为未命中，返回false
+    private <R, ID> boolean decodeInto(Map<ID, R> found, ID id, String json, Class<R> type, CacheCodec codec, boolean logicalExpire){
+        if(StrUtil.isBlank(json)){
+            return true;
+        }
+        if(!logicalExpire){
+            found.put(id, codec.decode(json, type));
+            return true;
+        }
+        RedisData redisData = codec.decode(json, RedisData.class);
+        if(redisData.getExpireTime().isBefore(LocalDateTime.now())){
+            return false;
+        }
+        found.put(id, codec.convert(redisData.getData(), type));
+        return true;
+    }
+
+    /**
+     * 按key前缀配置的策略写入缓存
+     * @param keyPrefix key前缀
+     * @param id id
+     * @param value 值
+     */
+    public void put(String keyPrefix, Object id, Object value){
+        CachePolicy policy = cachePolicyRegistry.get(keyPrefix);
+        String key = keyPrefix + id;
+        if(policy.getStrategy() == CacheStrategy.LOGICAL_EXPIRE){
+            setWithLogicalExpireTime(keyPrefix, key, value, policy);
+            return;
+        }
+        write(keyPrefix, key, policy.getCodec().encode(value), CachePolicyRegistry.ttlSeconds(policy), policy);
+    }
+
+    /**
+     * 删除缓存，同时清除本节点的一级缓存（其他节点的一级缓存依靠l1-ttl过期）
+     * @param keyPrefix key前缀
+     * @param id id
+     */
+    public void invalidate(String keyPrefix, Object id){
+        String key = keyPrefix + id;
+        stringRedisTemplate.delete(key);
+        Cache<String, String> l1 = l1Caches.get(keyPrefix);
+        if(l1 != null){
+            l1.remove(key);
+        }
     }
 
     //尝试获取锁
@@ -69,12 +238,48 @@ public class CacheClient {
      * @return R
      */
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return doQueryWithPassThrough(keyPrefix, id, type, dbFallback, adhocPolicy(CacheStrategy.PASS_THROUGH, time, unit, null));
+    }
+
+    /**
+     * 逻辑过期时间解决缓存击穿
+     * @param keyPrefix key前缀
+     * @param lockKeyPrefix 锁key前缀
+     * @param id id
+     * @param type 返回类型
+     * @param dbFallback 数据库查询函数
+     * @param time 缓存时间
+     * @param unit 时间单位
+     * @param <R> 返回类型泛型
+     * @param <ID> id类型泛型
+     * @return R
+     */
+    public <R, ID> R queryWithLogicalExpireTime(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return doQueryWithLogicalExpireTime(keyPrefix, id, type, dbFallback, adhocPolicy(CacheStrategy.LOGICAL_EXPIRE, time, unit, lockKeyPrefix), false);
+    }
+
+    /**
+     * 互斥锁解决缓存击穿
+     * @param keyPrefix key前缀
+     * @param lockKeyPrefix 锁key前缀
+     * @param id id
+     * @param type 返回类型
+     * @param dbFallback 数据库查询函数
+     * @param <R> 返回类型泛型
+     * @param <ID> id类型泛型
+     * @return R
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        return doQueryWithMutex(keyPrefix, id, type, dbFallback, adhocPolicy(CacheStrategy.MUTEX, time, unit, lockKeyPrefix));
+    }
+
+    private <R, ID> R doQueryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, CachePolicy policy){
         String key = keyPrefix + id;
-        //从redis中查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        //从缓存中查询
+        String json = read(keyPrefix, key, policy);
         //如果存在，直接返回
         if(StrUtil.isNotBlank(json)){//isNotBlank可以判断非空且非空字符串
-            return JSONUtil.toBean(json, type);
+            return policy.getCodec().decode(json, type);
         }
         //判断命中的是否是空值
         if(json != null){//既不是空字符串也不是null，说明是缓存的空值
@@ -85,39 +290,30 @@ public class CacheClient {
         //不存在，返回错误
         if(r == null) {
             //将空值写入redis
-            this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            write(keyPrefix, key, "", policy.getNullTtl().getSeconds(), policy);
             return null;
         }
         //存在，写入redis
-        this.set(key, JSONUtil.toJsonStr(id), time, unit);
+        write(keyPrefix, key, policy.getCodec().encode(r), CachePolicyRegistry.ttlSeconds(policy), policy);
         //返回
         return r;
     }
 
-    /**
-     * 逻辑过期时间解决缓存击穿
-     * @param keyPrefix key前缀
-     * @param lockKeyPrefix 锁key前缀
-     * @param id id
-     * @param type 返回类型
-     * @param dbFallback 数据库查询函数
-     * @param time 缓存时间
-     * @param unit 时间单位
-     * @param <R> 返回类型泛型
-     * @param <ID> id类型泛型
-     * @return R
-     */
-    public <R, ID> R queryWithLogicalExpireTime(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+    private <R, ID> R doQueryWithLogicalExpireTime(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, CachePolicy policy, boolean loadOnMiss){
         String key = keyPrefix + id;
-        //从redis中查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
+        //从缓存中查询
+        String json = read(keyPrefix, key, policy);
+        if(json == null && loadOnMiss){
+            //未预热的key，同步加载一次，之后都走逻辑过期
+            return loadLogicalExpireOnMiss(keyPrefix, id, type, dbFallback, policy);
+        }
         //如果不存在，直接返回null，不需要考虑缓存穿透问题是因为逻辑过期只会缓存存在的数据
         if(StrUtil.isBlank(json)){
             return null;
         }
         //命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONUtil.parseObj(redisData.getData())), type);
+        RedisData redisData = policy.getCodec().decode(json, RedisData.class);
+        R r = policy.getCodec().convert(redisData.getData(), type);
         //判断是否过期
         LocalDateTime expireTime = redisData.getExpireTime();
         //未过期，直接返回店铺信息
@@ -126,7 +322,7 @@ public class CacheClient {
         }
         //过期，需要重建缓存
         //1.获取互斥锁
-        String lockKey = lockKeyPrefix + id;
+        String lockKey = lockKeyPrefix(keyPrefix, policy) + id;
         boolean isLocked = tryLock(lockKey);
         //2.判断是否获取成功
         if(isLocked){
@@ -136,7 +332,7 @@ public class CacheClient {
                     //重建缓存
                     R r1 = dbFallback.apply(id);
                     //写入缓存
-                    this.setWithLogicalExpireTime(key, r1, time, unit);
+                    this.setWithLogicalExpireTime(keyPrefix, key, r1, policy);
                 } catch (Exception e) {
                     throw new RuntimeException(e);
                 } finally {
@@ -149,62 +345,146 @@ public class CacheClient {
         return r;
     }
 
-    /**
-     * 互斥锁解决缓存击穿
-     * @param keyPrefix key前缀
-     * @param lockKeyPrefix 锁key前缀
-     * @param id id
-     * @param type 返回类型
-     * @param dbFallback 数据库查询函数
-     * @param <R> 返回类型泛型
-     * @param <ID> id类型泛型
-     * @return R
-     */
-    public <R, ID> R queryWithMutex(String keyPrefix, String lockKeyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+    private <R, ID> R loadLogicalExpireOnMiss(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, CachePolicy policy){
         String key = keyPrefix + id;
-        //从redis中查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        //如果存在，直接返回
-        if(StrUtil.isNotBlank(json)){//isNotBlank可以判断非空且非空字符串
-            return JSONUtil.toBean(json, type);
-        }
-        //判断命中的是否是空值
-        if(json != null){//既不是空字符串也不是null，说明是缓存的空值
-            return null;
+        String lockKey = lockKeyPrefix(keyPrefix, policy) + id;
+        if(!tryLock(lockKey)){
+            //其他线程正在加载，稍后重新查询
+            sleep(50);
+            return doQueryWithLogicalExpireTime(keyPrefix, id, type, dbFallback, policy, true);
         }
-        //实现缓存重建
-        //1.获取互斥锁
-        String lockKey = lockKeyPrefix + id;
-        R r = null;
         try {
+            R r = dbFallback.apply(id);
+            if(r == null){
+                write(keyPrefix, key, "", policy.getNullTtl().getSeconds(), policy);
+                return null;
+            }
+            setWithLogicalExpireTime(keyPrefix, key, r, policy);
+            return r;
+        } finally {
+            unlock(lockKey);
+        }
+    }
+
+    private <R, ID> R doQueryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, CachePolicy policy){
+        String key = keyPrefix + id;
+        String lockKey = lockKeyPrefix(keyPrefix, policy) + id;
+        while (true) {
+            //从缓存中查询
+            String json = read(keyPrefix, key, policy);
+            //如果存在，直接返回
+            if(StrUtil.isNotBlank(json)){//isNotBlank可以判断非空且非空字符串
+                return policy.getCodec().decode(json, type);
+            }
+            //判断命中的是否是空值
+            if(json != null){//既不是空字符串也不是null，说明是缓存的空值
+                return null;
+            }
+            //实现缓存重建
+            //1.获取互斥锁
             boolean isLock = tryLock(lockKey);
             //2.判断是否获取成功
             //失败则休眠重试
             if(!isLock){
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, lockKeyPrefix, id, type, dbFallback, time, unit);//递归
+                sleep(50);
+                continue;
             }
-            //3.成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            //不存在，返回商铺不存在
-            if(r == null){
-                //将空值写入redis缓存，防止缓存穿透
-                this.set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                //返回错误信息
-                return null;
+            try {
+                //3.成功，再次检查缓存，可能已被上一个持锁线程重建
+                json = stringRedisTemplate.opsForValue().get(key);
+                if(json != null){
+                    return StrUtil.isBlank(json) ? null : policy.getCodec().decode(json, type);
+                }
+                //根据id查询数据库
+                R r = dbFallback.apply(id);
+                //不存在，返回商铺不存在
+                if(r == null){
+                    //将空值写入redis缓存，防止缓存穿透
+                    write(keyPrefix, key, "", policy.getNullTtl().getSeconds(), policy);
+                    //返回错误信息
+                    return null;
+                }
+                //存在，写入redis缓存
+                write(keyPrefix, key, policy.getCodec().encode(r), CachePolicyRegistry.ttlSeconds(policy), policy);
+                //返回
+                return r;
+            } finally {
+                //释放锁
+                unlock(lockKey);
             }
-            //模拟重建延时
-            Thread.sleep(200);
-            //存在，写入redis缓存
-            this.set(key, JSONUtil.toJsonStr(r), time, unit);
+        }
+    }
+
+    private void setWithLogicalExpireTime(String keyPrefix, String key, Object value, CachePolicy policy){
+        //设置逻辑过期时间
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(CachePolicyRegistry.ttlSeconds(policy)));
+        //写入redis
+        String json = policy.getCodec().encode(redisData);
+        stringRedisTemplate.opsForValue().set(key, json);
+        putL1(keyPrefix, key, json, policy);
+    }
+
+    //先查一级缓存，再查redis
+    private String read(String keyPrefix, String key, CachePolicy policy){
+        Cache<String, String> l1 = l1Cache(keyPrefix, policy);
+        if(l1 != null){
+            String json = l1.get(key, false);
+            if(json != null){
+                return json;
+            }
+        }
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if(json != null && l1 != null){
+            l1.put(key, json);
+        }
+        return json;
+    }
+
+    private void write(String keyPrefix, String key, String json, long seconds, CachePolicy policy){
+        stringRedisTemplate.opsForValue().set(key, json, seconds, TimeUnit.SECONDS);
+        putL1(keyPrefix, key, json, policy);
+    }
+
+    private void putL1(String keyPrefix, String key, String json, CachePolicy policy){
+        Cache<String, String> l1 = l1Cache(keyPrefix, policy);
+        if(l1 != null){
+            l1.put(key, json);
+        }
+    }
+
+    private Cache<String, String> l1Cache(String keyPrefix, CachePolicy policy){
+        if(keyPrefix == null || !Boolean.TRUE.equals(policy.getL1())){
+            return null;
+        }
+        return l1Caches.computeIfAbsent(keyPrefix,
+                prefix -> CacheUtil.newLRUCache(policy.getL1Size(), policy.getL1Ttl().toMillis()));
+    }
+
+    private static String lockKeyPrefix(String keyPrefix, CachePolicy policy){
+        return StrUtil.isNotBlank(policy.getLockKeyPrefix()) ? policy.getLockKeyPrefix() : "lock:" + keyPrefix;
+    }
+
+    //旧接口显式传入有效期，不使用抖动和一级缓存
+    private static CachePolicy adhocPolicy(CacheStrategy strategy, Long time, TimeUnit unit, String lockKeyPrefix){
+        CachePolicy policy = new CachePolicy();
+        policy.setStrategy(strategy);
+        policy.setTtl(Duration.ofSeconds(unit.toSeconds(time)));
+        policy.setJitter(Duration.ZERO);
+        policy.setNullTtl(Duration.ofMinutes(CACHE_NULL_TTL));
+        policy.setL1(false);
+        policy.setCodec(CacheCodec.JSON);
+        policy.setLockKeyPrefix(lockKeyPrefix);
+        return policy;
+    }
+
+    private static void sleep(long millis){
+        try {
+            Thread.sleep(millis);
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
-        } finally {
-            //释放锁
-            unlock(lockKey);
         }
-        //返回
-        return r;
     }
-
 }
@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * 缓存值的序列化方式
+ */
+public enum CacheCodec {
+    /**
+     * hutool JSON，与原有缓存数据格式保持一致
+     */
+    JSON {
+        @Override
+        public String encode(Object value) {
+            return JSONUtil.toJsonStr(value);
+        }
+
+        @Override
+        public <T> T decode(String text, Class<T> type) {
+            return JSONUtil.toBean(text, type);
+        }
+
+        @Override
+        public <T> T convert(Object value, Class<T> type) {
+            return JSONUtil.toBean((JSONObject) value, type);
+        }
+    },
+    /**
+     * jackson，序列化更快，时间字段以ISO格式保存
+     */
+    JACKSON {
+        @Override
+        public String encode(Object value) {
+            try {
+                return MAPPER.writeValueAsString(value);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("缓存序列化失败", e);
+            }
+        }
+
+        @Override
+        public <T> T decode(String text, Class<T> type) {
+            try {
+                return MAPPER.readValue(text, type);
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException("缓存反序列化失败", e);
+            }
+        }
+
+        @Override
+        public <T> T convert(Object value, Class<T> type) {
+            return MAPPER.convertValue(value, type);
+        }
+    };
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    /**
+     * 对象转为缓存字符串
+     */
+    public abstract String encode(Object value);
+
+    /**
+     * 缓存字符串转为对象
+     */
+    public abstract <T> T decode(String text, Class<T> type);
+
+    /**
+     * 将decode得到的中间结构（如RedisData.data）转为目标类型
+     */
+    public abstract <T> T convert(Object value, Class<T> type);
+}
@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+import java.time.Duration;
+
+/**
+ * 某个key前缀对应的缓存策略，未配置的字段继承默认策略
+ */
+@Data
+public class CachePolicy {
+    /**
+     * 读取策略
+     */
+    private CacheStrategy strategy;
+    /**
+     * 缓存有效期（逻辑过期策略下为逻辑有效期）
+     */
+    private Duration ttl;
+    /**
+     * 有效期随机抖动上限，避免同一批key同时失效造成缓存雪崩
+     */
+    private Duration jitter;
+    /**
+     * 空值缓存有效期
+     */
+    private Duration nullTtl;
+    /**
+     * 是否开启进程内一级缓存
+     */
+    private Boolean l1;
+    /**
+     * 一级缓存有效期，各节点间不做同步，应远小于ttl
+     */
+    private Duration l1Ttl;
+    /**
+     * 一级缓存最大条目数
+     */
+    private Integer l1Size;
+    /**
+     * 序列化方式
+     */
+    private CacheCodec codec;
+    /**
+     * 重建锁的key前缀，为空时使用 "lock:" + 缓存key前缀
+     */
+    private String lockKeyPrefix;
+
+    /**
+     * 用defaults补齐当前策略中未配置的字段
+     */
+    public CachePolicy mergeWith(CachePolicy defaults) {
+        CachePolicy merged = new CachePolicy();
+        merged.setStrategy(strategy != null ? strategy : defaults.getStrategy());
+        merged.setTtl(ttl != null ? ttl : defaults.getTtl());
+        merged.setJitter(jitter != null ? jitter : defaults.getJitter());
+        merged.setNullTtl(nullTtl != null ? nullTtl : defaults.getNullTtl());
+        merged.setL1(l1 != null ? l1 : defaults.getL1());
+        merged.setL1Ttl(l1Ttl != null ? l1Ttl : defaults.getL1Ttl());
+        merged.setL1Size(l1Size != null ? l1Size : defaults.getL1Size());
+        merged.setCodec(codec != null ? codec : defaults.getCodec());
+        merged.setLockKeyPrefix(lockKeyPrefix != null ? lockKeyPrefix : defaults.getLockKeyPrefix());
+        return merged;
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.RandomUtil;
+import com.hmdp.config.CacheProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 缓存策略注册表，按key前缀查找application.yaml中配置的策略
+ */
+@Slf4j
+@Component
+public class CachePolicyRegistry {
+    private final CacheProperties cacheProperties;
+
+    //按前缀长度倒序，保证最长前缀优先匹配
+    private final Map<String, CachePolicy> policies = new TreeMap<>((a, b) -> a.length() != b.length() ? b.length() - a.length() : a.compareTo(b));
+    //查找结果缓存，避免每次请求都遍历前缀
+    private final Map<String, CachePolicy> resolved = new ConcurrentHashMap<>();
+    private CachePolicy defaults;
+
+    public CachePolicyRegistry(CacheProperties cacheProperties) {
+        this.cacheProperties = cacheProperties;
+    }
+
+    @PostConstruct
+    public void init() {
+        defaults = cacheProperties.getDefaults();
+        cacheProperties.getPolicies().forEach((prefix, policy) -> {
+            CachePolicy merged = policy.mergeWith(defaults);
+            policies.put(prefix, merged);
+            log.debug("缓存策略 {} -> {}", prefix, merged);
+        });
+    }
+
+    /**
+     * 查找key前缀对应的策略，没有配置时返回默认策略
+     * @param keyPrefix key前缀
+     * @return 策略
+     */
+    public CachePolicy get(String keyPrefix) {
+        return resolved.computeIfAbsent(keyPrefix, prefix -> {
+            for (Map.Entry<String, CachePolicy> entry : policies.entrySet()) {
+                if (prefix.startsWith(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+            return defaults;
+        });
+    }
+
+    /**
+     * 计算本次写入的有效期，在ttl基础上叠加随机抖动
+     * @param policy 策略
+     * @return 有效期，单位秒
+     */
+    public static long ttlSeconds(CachePolicy policy) {
+        long ttl = policy.getTtl().getSeconds();
+        long jitter = policy.getJitter() == null ? 0 : policy.getJitter().getSeconds();
+        return jitter > 0 ? ttl + RandomUtil.randomLong(jitter + 1) : ttl;
+    }
+}
@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * 基于redis hash的计数缓冲区，写入时HINCRBY累加，定时任务批量取出后回写数据库
+ * <p>
+ * drain时先把hash RENAME为处理中的key，之后的写入进入新的hash，互不影响。
+ * 回写成功后调用ack删除处理中的key；回写失败时数据保留，下次drain会重新返回。
+ * 同一个缓冲区同一时间只能有一个drain，调用方需要加分布式锁
+ * <p>
+ * 回写是至少一次：数据库事务提交后、ack之前进程崩溃或redis出错，同一批增量会在下次drain时再回写一次。
+ * 只适合点赞数、销量这类允许少量偏差、并会被其它来源校正的计数
+ */
+public class CounterBuffer {
+    private final StringRedisTemplate stringRedisTemplate;
+    private final String key;
+    private final String drainingKey;
+
+    public CounterBuffer(StringRedisTemplate stringRedisTemplate, String key) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key;
+        this.drainingKey = key + ":draining";
+    }
+
+    /**
+     * 写入计数的hash key，需要和其他命令放在同一个pipeline中时使用
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 正在回写的hash key，drain之后、ack之前其中的增量还没有计入数据库
+     */
+    public String getDrainingKey() {
+        return drainingKey;
+    }
+
+    /**
+     * 累加计数
+     * @param id 计数对象的id
+     * @param delta 增量，可以为负数
+     */
+    public void incr(Object id, long delta) {
+        stringRedisTemplate.opsForHash().increment(key, id.toString(), delta);
+    }
+
+    /**
+     * 取出待回写的计数，上次未ack的数据会优先返回
+     * @return id -> 增量，已抵消为0的不返回
+     */
+    public Map<Long, Long> drain() {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(drainingKey))) {
+            //RENAME不存在的key会报错
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                return Collections.emptyMap();
+            }
+            stringRedisTemplate.rename(key, drainingKey);
+        }
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(drainingKey);
+        Map<Long, Long> deltas = new HashMap<>(entries.size() * 2);
+        entries.forEach((id, delta) -> {
+            long value = Long.parseLong(delta.toString());
+            if (value != 0) {
+                deltas.put(Long.valueOf(id.toString()), value);
+            }
+        });
+        return deltas;
+    }
+
+    /**
+     * 回写成功，删除已取出的计数
+     */
+    public void ack() {
+        stringRedisTemplate.delete(drainingKey);
+    }
+
+    /**
+     * drain后交给writer回写，writer正常返回才ack，抛出异常时计数保留到下次。
+     * writer提交后ack失败时同一批增量会被再次回写
+     * @param writer 回写数据库，所有增量应在同一个事务中提交
+     * @return 本次回写的计数
+     */
+    public Map<Long, Long> flush(Consumer<Map<Long, Long>> writer) {
+        Map<Long, Long> deltas = drain();
+        if (deltas.isEmpty()) {
+            return deltas;
+        }
+        writer.accept(deltas);
+        ack();
+        return deltas;
+    }
+
+    /**
+     * 按数量拆分，每批生成一条UPDATE语句
+     */
+    public static List<Map<Long, Long>> partition(Map<Long, Long> deltas, int batchSize) {
+        List<Map<Long, Long>> batches = new ArrayList<>(deltas.size() / batchSize + 1);
+        Map<Long, Long> batch = new HashMap<>();
+        for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new HashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+}
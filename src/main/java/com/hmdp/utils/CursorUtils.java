@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 游标分页（keyset）的游标编解码，游标内容为上一页最后一条记录的排序字段，对客户端不透明
+ */
+public class CursorUtils {
+    private static final String VERSION = "v1";
+
+    /**
+     * 生成游标
+     * @param values 上一页最后一条记录的排序字段
+     * @return 游标
+     */
+    public static String encode(long... values) {
+        StringBuilder sb = new StringBuilder(VERSION);
+        for (long value : values) {
+            sb.append(':').append(value);
+        }
+        return Base64.encodeUrlSafe(sb.toString());
+    }
+
+    /**
+     * 解析游标
+     * @param cursor 游标，为空表示查询第一页
+     * @param length 排序字段个数
+     * @return 排序字段，第一页返回null
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static long[] decode(String cursor, int length) {
+        return decode(cursor, length, length);
+    }
+
+    /**
+     * 解析变长游标，例如按距离分页时附带的同距离已返回id
+     * @param cursor 游标，为空表示查询第一页
+     * @param minLength 最少的排序字段个数
+     * @return 排序字段，第一页返回null
+     * @throws IllegalArgumentException 游标格式不正确
+     */
+    public static long[] decodeAtLeast(String cursor, int minLength) {
+        return decode(cursor, minLength, Integer.MAX_VALUE);
+    }
+
+    private static long[] decode(String cursor, int minLength, int maxLength) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            List<String> parts = StrUtil.split(Base64.decodeStr(cursor, StandardCharsets.UTF_8), ':');
+            int length = parts.size() - 1;
+            if (length < minLength || length > maxLength || !VERSION.equals(parts.get(0))) {
+                throw new IllegalArgumentException("无效的游标");
+            }
+            long[] values = new long[length];
+            for (int i = 0; i < length; i++) {
+                values[i] = Long.parseLong(parts.get(i + 1));
+            }
+            return values;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("无效的游标", e);
+        }
+    }
+
+    /**
+     * 多查一条判断是否还有下一页，有则去掉多查的一条
+     * @param records 按pageSize + 1查询到的记录
+     * @param pageSize 每页条数
+     * @return 是否还有下一页
+     */
+    public static boolean trimPage(List<?> records, int pageSize) {
+        if (records.size() <= pageSize) {
+            return false;
+        }
+        records.subList(pageSize, records.size()).clear();
+        return true;
+    }
+}
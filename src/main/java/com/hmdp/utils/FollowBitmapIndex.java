@@ -0,0 +1,320 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.BatchIterator;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.FOLLOW_CHANNEL;
+
+/**
+ * 进程内的关注关系压缩位图（RoaringBitmap），hmdp.follow.engine=bitmap时启动加载tb_follow
+ * <p>
+ * 每个用户一个粉丝位图和一个关注位图，稠密的粉丝id每条关系约占1~2字节，redis SET中十进制字符串的成员要几十字节。
+ * 求交集、并集按容器批量计算，推送粉丝时按批取出int数组，不需要逐个解析字符串。
+ * <p>
+ * 读取的是不可变快照，不需要加锁。关注、取关先进入待应用队列，由定时任务批量应用：
+ * 每批中有变化的位图只复制一次，再整体替换，粉丝很多的用户被频繁关注时也不会每条关系复制一次，
+ * 代价是变更最多延迟一个应用间隔才可见。关注、取关通过发布订阅同步到其他实例，
+ * 发布订阅不保证送达，定时全量重新加载兜底。
+ * 位图只能保存32位无符号整数，用户id超出范围时不加载，调用方继续使用redis
+ */
+@Slf4j
+@Component
+public class FollowBitmapIndex {
+    //加载tb_follow时每次读取的行数
+    private static final int LOAD_BATCH = 10000;
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.follow.engine:redis}")
+    private String engine;
+
+    //本实例的标识，收到自己发布的消息时跳过
+    private final String instanceId = UUID.randomUUID().toString();
+    private boolean enabled;
+    //userId -> 粉丝，加载完成后整体替换
+    private volatile Map<Integer, RoaringBitmap> followers = new ConcurrentHashMap<>();
+    //userId -> 关注的人
+    private volatile Map<Integer, RoaringBitmap> following = new ConcurrentHashMap<>();
+    private volatile boolean ready;
+    //用户id超出32位，不再接收变更，等待下次重新加载
+    private volatile boolean unsupported;
+    //待应用的关注、取关
+    private final Queue<Change> pending = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void init() {
+        enabled = "bitmap".equals(engine);
+        if (!enabled) {
+            return;
+        }
+        //其他实例的关注、取关，消息内容为 实例标识:1或0:userId:followUserId
+        redisMessageListenerContainer.addMessageListener((message, pattern) -> {
+            String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 4 || instanceId.equals(parts[0])) {
+                return;
+            }
+            enqueue("1".equals(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        }, new ChannelTopic(FOLLOW_CHANNEL));
+        load();
+    }
+
+    /**
+     * 定时从tb_follow全量重新加载，修正发布订阅丢失消息造成的偏差
+     */
+    @Scheduled(fixedDelayString = "${hmdp.follow.bitmap-reload-interval:3600000}",
+            initialDelayString = "${hmdp.follow.bitmap-reload-interval:3600000}")
+    public void reload() {
+        if (enabled) {
+            load();
+        }
+    }
+
+    /**
+     * 从tb_follow全量加载，加载期间继续使用旧的位图，期间的变更在加载完成后应用
+     */
+    public synchronized void load() {
+        Map<Integer, RoaringBitmap> loadedFollowers = new ConcurrentHashMap<>();
+        Map<Integer, RoaringBitmap> loadedFollowing = new ConcurrentHashMap<>();
+        long lastId = 0;
+        long edges = 0;
+        while (true) {
+            List<Follow> follows = followMapper.selectList(Wrappers.<Follow>query()
+                    .select("id", "user_id", "follow_user_id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH));
+            for (Follow follow : follows) {
+                if (!inRange(follow.getUserId()) || !inRange(follow.getFollowUserId())) {
+                    log.warn("用户id超出32位，不使用关注位图，关注关系{}", follow.getId());
+                    ready = false;
+                    unsupported = true;
+                    pending.clear();
+                    return;
+                }
+                int user = follow.getUserId().intValue();
+                int followUser = follow.getFollowUserId().intValue();
+                loadedFollowers.computeIfAbsent(followUser, k -> new RoaringBitmap()).add(user);
+                loadedFollowing.computeIfAbsent(user, k -> new RoaringBitmap()).add(followUser);
+            }
+            edges += follows.size();
+            if (follows.size() < LOAD_BATCH) {
+                break;
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+        }
+        //连续的id合并为run容器，进一步压缩
+        loadedFollowers.values().forEach(RoaringBitmap::runOptimize);
+        loadedFollowing.values().forEach(RoaringBitmap::runOptimize);
+        followers = loadedFollowers;
+        following = loadedFollowing;
+        unsupported = false;
+        ready = true;
+        log.debug("关注位图加载完成，共{}条关注关系，占用{}字节", edges, sizeInBytes());
+    }
+
+    /**
+     * 是否已加载，未加载时调用方使用redis
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 关注或取关写入数据库后调用，更新本实例的位图，并通知其他实例
+     */
+    public void update(boolean follow, Long userId, Long followUserId) {
+        if (!enabled) {
+            return;
+        }
+        enqueue(follow, userId, followUserId);
+        stringRedisTemplate.convertAndSend(FOLLOW_CHANNEL,
+                instanceId + ":" + (follow ? "1" : "0") + ":" + userId + ":" + followUserId);
+    }
+
+    /**
+     * 批量应用待处理的关注、取关，每个有变化的位图只复制一次后替换。加载期间阻塞，加载完成后再应用
+     */
+    @Scheduled(fixedDelayString = "${hmdp.follow.bitmap-apply-interval:1000}")
+    public synchronized void applyPending() {
+        if (!ready || pending.isEmpty()) {
+            return;
+        }
+        Map<Integer, RoaringBitmap> followerCopies = new HashMap<>();
+        Map<Integer, RoaringBitmap> followingCopies = new HashMap<>();
+        //同一条关系的关注、取关按到达顺序应用
+        Change change;
+        int n = 0;
+        while ((change = pending.poll()) != null) {
+            change(followers, followerCopies, change.followUser, change.user, change.follow);
+            change(following, followingCopies, change.user, change.followUser, change.follow);
+            n++;
+        }
+        swap(followers, followerCopies);
+        swap(following, followingCopies);
+        log.debug("关注位图应用{}条变更，{}个粉丝位图、{}个关注位图有变化", n, followerCopies.size(), followingCopies.size());
+    }
+
+    /**
+     * 粉丝数
+     */
+    public long followerCount(Long userId) {
+        RoaringBitmap bitmap = followersOf(userId);
+        return bitmap == null ? 0 : bitmap.getLongCardinality();
+    }
+
+    /**
+     * 两个用户关注的人的交集
+     */
+    public Set<Long> common(Long userId, Long otherUserId) {
+        RoaringBitmap a = followingOf(userId);
+        RoaringBitmap b = followingOf(otherUserId);
+        if (a == null || b == null) {
+            return Collections.emptySet();
+        }
+        return toSet(RoaringBitmap.and(a, b));
+    }
+
+    /**
+     * 多个用户的粉丝的并集，如同时推送多个作者时去掉重复的粉丝
+     */
+    public RoaringBitmap followersOfAny(Collection<Long> userIds) {
+        List<RoaringBitmap> bitmaps = new ArrayList<>(userIds.size());
+        for (Long userId : userIds) {
+            RoaringBitmap bitmap = followersOf(userId);
+            if (bitmap != null) {
+                bitmaps.add(bitmap);
+            }
+        }
+        return bitmaps.isEmpty() ? new RoaringBitmap() : FastAggregation.or(bitmaps.iterator());
+    }
+
+    /**
+     * 按批遍历粉丝，遍历的是调用时的快照
+     * @param userId 用户id
+     * @param batchSize 每批数量
+     * @param consumer 每批的粉丝id，数组长度即本批数量
+     */
+    public void forEachFollowers(Long userId, int batchSize, Consumer<long[]> consumer) {
+        RoaringBitmap bitmap = followersOf(userId);
+        if (bitmap == null) {
+            return;
+        }
+        BatchIterator it = bitmap.getBatchIterator();
+        int[] buffer = new int[batchSize];
+        while (it.hasNext()) {
+            int n = it.nextBatch(buffer);
+            long[] batch = new long[n];
+            for (int i = 0; i < n; i++) {
+                batch[i] = Integer.toUnsignedLong(buffer[i]);
+            }
+            consumer.accept(batch);
+        }
+    }
+
+    /**
+     * 位图占用的字节数，不含map本身
+     */
+    public long sizeInBytes() {
+        long bytes = 0;
+        for (RoaringBitmap bitmap : followers.values()) {
+            bytes += bitmap.getLongSizeInBytes();
+        }
+        for (RoaringBitmap bitmap : following.values()) {
+            bytes += bitmap.getLongSizeInBytes();
+        }
+        return bytes;
+    }
+
+    //发布订阅的监听线程和本实例的请求线程都会调用，只入队不加锁
+    private void enqueue(boolean follow, long userId, long followUserId) {
+        if (unsupported || !inRange(userId) || !inRange(followUserId)) {
+            return;
+        }
+        pending.add(new Change(follow, (int) userId, (int) followUserId));
+    }
+
+    //在本批的副本上修改，第一次修改某个位图时复制
+    private static void change(Map<Integer, RoaringBitmap> bitmaps, Map<Integer, RoaringBitmap> copies,
+                               int key, int value, boolean add) {
+        RoaringBitmap copy = copies.get(key);
+        if (copy == null) {
+            RoaringBitmap old = bitmaps.get(key);
+            if (!add && (old == null || !old.contains(value))) {
+                return;
+            }
+            copy = old == null ? new RoaringBitmap() : old.clone();
+            copies.put(key, copy);
+        }
+        if (add) {
+            copy.add(value);
+        } else {
+            copy.remove(value);
+        }
+    }
+
+    private static void swap(Map<Integer, RoaringBitmap> bitmaps, Map<Integer, RoaringBitmap> copies) {
+        copies.forEach((key, copy) -> {
+            if (copy.isEmpty()) {
+                bitmaps.remove(key);
+            } else {
+                bitmaps.put(key, copy);
+            }
+        });
+    }
+
+    private RoaringBitmap followersOf(Long userId) {
+        return inRange(userId) ? followers.get(userId.intValue()) : null;
+    }
+
+    private RoaringBitmap followingOf(Long userId) {
+        return inRange(userId) ? following.get(userId.intValue()) : null;
+    }
+
+    private static boolean inRange(long id) {
+        return id >= 0 && id <= 0xFFFFFFFFL;
+    }
+
+    private static Set<Long> toSet(RoaringBitmap bitmap) {
+        Set<Long> ids = new HashSet<>(bitmap.getCardinality() * 2);
+        bitmap.forEach((int id) -> ids.add(Integer.toUnsignedLong(id)));
+        return ids;
+    }
+
+    private static class Change {
+        private final boolean follow;
+        private final int user;
+        private final int followUser;
+
+        Change(boolean follow, int user, int followUser) {
+            this.follow = follow;
+            this.user = user;
+            this.followUser = followUser;
+        }
+    }
+}
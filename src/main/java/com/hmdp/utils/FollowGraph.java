@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.dto.FollowCountDTO;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_COUNT_KEY;
+
+/**
+ * 关注关系，tb_follow为准，redis中保存每个用户关注的人 follows:{userId}，
+ * 共同关注、是否关注都在redis中计算，不需要join。关注数、粉丝数保存在 follow:count:{userId} 哈希中，读取为O(1)
+ * <p>
+ * 关注集合第一次用到时从数据库加载，之后关注、取关先写数据库再同步修改集合和计数
+ */
+@Slf4j
+@Component
+public class FollowGraph {
+    private static final String FOLLOWING = "following";
+    private static final String FOLLOWERS = "followers";
+
+    @Resource
+    private FollowMapper followMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private FollowBitmapIndex followBitmapIndex;
+
+    /**
+     * 关注
+     * @param userId 用户id
+     * @param followUserId 被关注的用户id
+     * @return 是否新增了关注，已关注时返回false
+     */
+    public boolean follow(Long userId, Long followUserId) {
+        String key = load(userId);
+        String member = followUserId.toString();
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, member))) {
+            return false;
+        }
+        // 计数在写数据库之前初始化，之后只做增量
+        initCount(userId, FOLLOWING);
+        initCount(followUserId, FOLLOWERS);
+        try {
+            followMapper.insert(new Follow().setUserId(userId).setFollowUserId(followUserId));
+        } catch (DuplicateKeyException e) {
+            // 并发重复关注，唯一索引保证只有一条
+            return false;
+        }
+        update(key, member, userId, followUserId, 1);
+        followBitmapIndex.update(true, userId, followUserId);
+        return true;
+    }
+
+    /**
+     * 取消关注
+     * @param userId 用户id
+     * @param followUserId 被关注的用户id
+     * @return 是否删除了关注，未关注时返回false
+     */
+    public boolean unfollow(Long userId, Long followUserId) {
+        String key = load(userId);
+        initCount(userId, FOLLOWING);
+        initCount(followUserId, FOLLOWERS);
+        int rows = followMapper.delete(Wrappers.<Follow>query()
+                .eq("user_id", userId)
+                .eq("follow_user_id", followUserId));
+        if (rows == 0) {
+            return false;
+        }
+        update(key, followUserId.toString(), userId, followUserId, -1);
+        followBitmapIndex.update(false, userId, followUserId);
+        return true;
+    }
+
+    /**
+     * 是否已关注
+     */
+    public boolean isFollowing(Long userId, Long followUserId) {
+        String key = load(userId);
+        return Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(key, followUserId.toString()));
+    }
+
+    /**
+     * 两个用户的共同关注，启用关注位图时在本地求交集，否则SINTER在redis中计算
+     * @return 共同关注的用户id
+     */
+    public Set<Long> common(Long userId, Long otherUserId) {
+        if (followBitmapIndex.isReady()) {
+            return followBitmapIndex.common(userId, otherUserId);
+        }
+        return intersect(userId, load(otherUserId));
+    }
+
+    /**
+     * 用户关注的人与另一个集合的交集
+     * @param userId 用户id
+     * @param key 元素为用户id的集合
+     * @return 交集中的用户id
+     */
+    public Set<Long> intersect(Long userId, String key) {
+        Set<String> members = stringRedisTemplate.opsForSet().intersect(load(userId), key);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toSet());
+    }
+
+    /**
+     * 关注数和粉丝数
+     */
+    public FollowCountDTO counts(Long userId) {
+        String key = FOLLOW_COUNT_KEY + userId;
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, Arrays.asList(FOLLOWING, FOLLOWERS));
+        long following = values.get(0) == null ? initCount(userId, FOLLOWING) : Long.parseLong((String) values.get(0));
+        long followers = values.get(1) == null ? initCount(userId, FOLLOWERS) : Long.parseLong((String) values.get(1));
+        return new FollowCountDTO(userId, following, followers);
+    }
+
+    // 关注集合不存在时从数据库加载；没有关注任何人的用户集合不存在，每次都会查库，走idx_user_id索引
+    private String load(Long userId) {
+        String key = FOLLOWS_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+            return key;
+        }
+        List<Follow> follows = followMapper.selectList(Wrappers.<Follow>query()
+                .select("follow_user_id")
+                .eq("user_id", userId));
+        if (!follows.isEmpty()) {
+            String[] members = follows.stream().map(follow -> follow.getFollowUserId().toString()).toArray(String[]::new);
+            stringRedisTemplate.opsForSet().add(key, members);
+            log.debug("加载用户{}的关注集合，共{}人", userId, members.length);
+        }
+        return key;
+    }
+
+    // 计数不存在时从数据库统计，HSETNX保证并发初始化时不会覆盖已累加的增量
+    private long initCount(Long userId, String field) {
+        String key = FOLLOW_COUNT_KEY + userId;
+        Object value = stringRedisTemplate.opsForHash().get(key, field);
+        if (value != null) {
+            return Long.parseLong((String) value);
+        }
+        String column = FOLLOWING.equals(field) ? "user_id" : "follow_user_id";
+        long count = followMapper.selectCount(Wrappers.<Follow>query().eq(column, userId));
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForHash().putIfAbsent(key, field, String.valueOf(count)))) {
+            return count;
+        }
+        return Long.parseLong((String) stringRedisTemplate.opsForHash().get(key, field));
+    }
+
+    // 一次pipeline修改关注集合和双方的计数
+    private void update(String key, String member, Long userId, Long followUserId, long delta) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (delta > 0) {
+                conn.sAdd(key, member);
+            } else {
+                conn.sRem(key, member);
+            }
+            conn.hIncrBy(FOLLOW_COUNT_KEY + userId, FOLLOWING, delta);
+            conn.hIncrBy(FOLLOW_COUNT_KEY + followUserId, FOLLOWERS, delta);
+            return null;
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.SecureUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+
+/**
+ * 不可变的响应快照，保存序列化好的JSON字节和对应的ETag，读多写少的数据直接返回字节，不再重复序列化
+ */
+@Getter
+public class JsonSnapshot {
+    /**
+     * 版本号，用于判断收到的刷新通知是否比当前快照新
+     */
+    private final long version;
+    /**
+     * 响应体的md5，带双引号，可直接作为ETag
+     */
+    private final String etag;
+    private final byte[] body;
+
+    private JsonSnapshot(long version, byte[] body) {
+        this.version = version;
+        this.body = body;
+        this.etag = "\"" + SecureUtil.md5().digestHex(body) + "\"";
+    }
+
+    /**
+     * 使用与MVC相同的ObjectMapper序列化，保证与普通接口的输出格式一致
+     */
+    public static JsonSnapshot of(long version, ObjectMapper objectMapper, Object value) {
+        try {
+            return new JsonSnapshot(version, objectMapper.writeValueAsBytes(value));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("序列化快照失败", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.Cache;
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录会话的本地缓存，token -> 用户
+ * <p>
+ * 命中时不访问redis；未命中时HGETALL，需要续期时EXPIRE放在同一个pipeline中，一次往返。
+ * 同一token在refreshInterval内最多续期一次。不存在的token也会短暂缓存，避免无效token反复查询redis。
+ * 登出时删除redis中的会话，并通过发布订阅通知所有实例删除本地缓存。
+ * 每个用户的token记录在 login:tokens:{userId} 中，随会话一起续期，修改昵称、头像时同步更新该用户所有会话
+ */
+@Component
+public class LoginSessionCache {
+    //不存在的会话，只在本地缓存中使用
+    private static final UserDTO MISSING = new UserDTO();
+
+    //修改用户所有未过期的会话
+    private static final DefaultRedisScript<List> UPDATE_SCRIPT;
+    static {
+        UPDATE_SCRIPT = new DefaultRedisScript<>();
+        UPDATE_SCRIPT.setLocation(new ClassPathResource("lua/login_session_update.lua"));
+        UPDATE_SCRIPT.setResultType(List.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    //本地缓存的有效期，单位毫秒
+    @Value("${hmdp.login.session-cache-ttl:5000}")
+    private long cacheTtl;
+
+    @Value("${hmdp.login.session-cache-size:10000}")
+    private int cacheSize;
+
+    //token有效期的续期间隔，单位毫秒
+    @Value("${hmdp.login.refresh-interval:60000}")
+    private long refreshInterval;
+
+    private Cache<String, UserDTO> sessions;
+    //最近续期过的token，过期后需要再次续期
+    private Cache<String, Boolean> refreshed;
+
+    @PostConstruct
+    public void init() {
+        sessions = CacheUtil.newLRUCache(cacheSize, cacheTtl);
+        refreshed = CacheUtil.newLRUCache(cacheSize, refreshInterval);
+        //任一实例登出或修改资料后，消息内容为token
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                sessions.remove(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(LOGIN_LOGOUT_CHANNEL));
+    }
+
+    /**
+     * 查询token对应的登录用户，并按续期间隔刷新token有效期
+     * @param token 登录令牌
+     * @return 用户，未登录或已过期返回null，每次返回新对象
+     */
+    public UserDTO get(String token) {
+        String key = LOGIN_USER_KEY + token;
+        boolean refresh = refreshed.get(token, false) == null;
+        UserDTO user = sessions.get(token, false);
+        if (user == null) {
+            //1.未命中，查询会话，需要续期时一起续期
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.hGetAll(key);
+                if (refresh) {
+                    conn.expire(key, LOGIN_USER_TTL);
+                }
+                return null;
+            });
+            @SuppressWarnings("unchecked")
+            Map<String, String> userMap = (Map<String, String>) results.get(0);
+            user = userMap == null || userMap.isEmpty() ? MISSING : BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+            sessions.put(token, user);
+            //查询前不知道用户id，token集合单独续期
+            if (refresh && user != MISSING) {
+                stringRedisTemplate.expire(LOGIN_USER_TOKENS_KEY + user.getId(), LOGIN_USER_TTL, TimeUnit.SECONDS);
+            }
+        } else if (refresh && user != MISSING) {
+            //2.命中，距上次续期超过间隔才续期，会话和token集合一起续期
+            Long userId = user.getId();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.expire(key, LOGIN_USER_TTL);
+                conn.expire(LOGIN_USER_TOKENS_KEY + userId, LOGIN_USER_TTL);
+                return null;
+            });
+        }
+        if (user == MISSING) {
+            return null;
+        }
+        if (refresh) {
+            refreshed.put(token, Boolean.TRUE);
+        }
+        return BeanUtil.copyProperties(user, UserDTO.class);
+    }
+
+    /**
+     * 登出：删除redis中的会话，通知所有实例删除本地缓存
+     * @param token 登录令牌
+     */
+    public void invalidate(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        sessions.remove(token);
+        refreshed.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+    }
+
+    /**
+     * 修改资料：更新用户所有未过期的会话，通知所有实例删除本地缓存
+     * @param userId 用户id
+     * @param fields 修改的字段和值，如nickName、icon
+     */
+    public void update(Long userId, Map<String, String> fields) {
+        if (fields.isEmpty()) {
+            return;
+        }
+        //1.原子地修改还存在的会话，已过期的token从集合中移除
+        List<Object> args = new ArrayList<>(fields.size() * 2 + 1);
+        args.add(LOGIN_USER_KEY);
+        fields.forEach((field, value) -> {
+            args.add(field);
+            args.add(value);
+        });
+        @SuppressWarnings("unchecked")
+        List<String> tokens = stringRedisTemplate.execute(UPDATE_SCRIPT,
+                Collections.singletonList(LOGIN_USER_TOKENS_KEY + userId), args.toArray());
+        if (tokens == null) {
+            return;
+        }
+        //2.删除本地缓存，通知其他实例
+        for (String token : tokens) {
+            sessions.remove(token);
+            stringRedisTemplate.convertAndSend(LOGIN_LOGOUT_CHANNEL, token);
+        }
+    }
+}
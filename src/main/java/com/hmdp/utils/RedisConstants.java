@@ -5,18 +5,50 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_USER_TOKENS_KEY = "login:tokens:";
+    public static final String LOGIN_LOGOUT_CHANNEL = "channel:login:logout";
+    public static final String LOGIN_REVOKED_KEY = "login:revoked";
+    public static final String LOGIN_REVOKED_CHANNEL = "channel:login:revoked";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_TYPE_LIST = "cache:shop:typeList";
+    public static final String SHOP_TYPE_LIST_VERSION_KEY = "cache:shop:typeList:version";
+    public static final String SHOP_TYPE_LIST_CHANNEL = "channel:shop:typeList";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
+    public static final String CACHE_USER_PROFILE_KEY = "cache:user:profile:";
+    public static final String CACHE_USER_INFO_KEY = "cache:user:info:";
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_COUNTER_KEY = "counter:blog:";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_UV_KEY = "blog:uv:";
+    public static final String BLOG_UV_DIRTY_KEY = "blog:uv:dirty";
+    public static final String LOCK_BLOG_FLUSH_KEY = "lock:flush:blog";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOW_COUNT_KEY = "follow:count:";
+    public static final String FOLLOW_CHANNEL = "channel:follow";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_PULL_AUTHORS_KEY = "feed:bigv";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGE_CHANNEL = "channel:shop:change";
+    public static final String SHOP_TYPE_KEY = "shop:type:";
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_LOCATION_KEY = "shop:rank:loc";
+    public static final String SHOP_COUNTER_KEY = "counter:shop:";
+    public static final String LOCK_SHOP_RANK_FLUSH_KEY = "lock:flush:shop:rank";
     public static final String USER_SIGN_KEY = "sign:";
+    public static final String UV_SITE_KEY = "uv:site:";
+    public static final String UV_SHOP_KEY = "uv:shop:";
+    public static final String UV_SHOPS_KEY = "uv:shops:";
+    public static final String UV_ROLLED_KEY = "uv:rolled";
+    public static final String LOCK_UV_ROLLUP_KEY = "lock:rollup:uv";
+    public static final String LOCK_SIGN_ARCHIVE_KEY = "lock:archive:sign";
 }
@@ -0,0 +1,305 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.dto.ShopRankDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺排行榜，按类型和商圈分别维护销量、评论数、评分三个ZSET
+ * <p>
+ * 下单、发布探店笔记时ZINCRBY实时更新榜单，同时把增量写入计数缓冲区，
+ * 由定时任务批量回写tb_shop。评分不是累加值，只在商铺更新时覆盖
+ * <p>
+ * 商铺所在的类型和商圈保存在redis hash shop:rank:loc 中，所有实例共享，
+ * 任一实例修改商铺类型、商圈后，其他实例累加时立即使用新的榜单
+ */
+@Slf4j
+@Component
+public class ShopLeaderboard {
+    public static final String SOLD = "sold";
+    public static final String COMMENTS = "comments";
+    public static final String SCORE = "score";
+    public static final List<String> METRICS = Arrays.asList(SOLD, COMMENTS, SCORE);
+    //累加的指标，同时也是tb_shop中的列名
+    private static final List<String> COUNTERS = Arrays.asList(SOLD, COMMENTS);
+    //每条UPDATE语句回写的商铺数量
+    private static final int FLUSH_BATCH = 500;
+    private static final DefaultRedisScript<Long> INCR_SCRIPT;
+    static {
+        INCR_SCRIPT = new DefaultRedisScript<>();
+        INCR_SCRIPT.setLocation(new ClassPathResource("lua/shop_rank_incr.lua"));
+        INCR_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    private final Map<String, CounterBuffer> buffers = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        for (String metric : COUNTERS) {
+            buffers.put(metric, new CounterBuffer(stringRedisTemplate, SHOP_COUNTER_KEY + metric));
+        }
+        List<Shop> shops = shopMapper.selectList(
+                Wrappers.<Shop>query().select("id", "type_id", "area", "sold", "comments", "score"));
+        Map<String, Set<ZSetOperations.TypedTuple<String>>> boards = new HashMap<>();
+        Map<String, String> locations = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            locations.put(shop.getId().toString(), encodeLocation(shop));
+            for (String metric : METRICS) {
+                double value = valueOf(shop, metric);
+                for (String key : keysOf(metric, shop)) {
+                    boards.computeIfAbsent(key, k -> new HashSet<>())
+                            .add(new DefaultTypedTuple<>(shop.getId().toString(), value));
+                }
+            }
+        }
+        //商铺位置在事务提交后才更新，数据库中的不会比redis旧
+        if (!locations.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(SHOP_RANK_LOCATION_KEY, locations);
+        }
+        //已存在的榜单包含尚未回写的增量，不能用数据库覆盖
+        boards.forEach((key, tuples) -> {
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(key))) {
+                stringRedisTemplate.opsForZSet().add(key, tuples);
+            }
+        });
+        log.debug("商铺排行榜加载完成，共{}个商铺，{}个榜单", shops.size(), boards.size());
+    }
+
+    /**
+     * 累加销量或评论数
+     * @param shopId 商铺id
+     * @param metric SOLD或COMMENTS
+     * @param delta 增量
+     */
+    public void incr(Long shopId, String metric, long delta) {
+        CounterBuffer buffer = buffers.get(metric);
+        if (buffer == null) {
+            return;
+        }
+        String member = shopId.toString();
+        //按redis中的商铺位置累加，与其他实例修改商铺类型、商圈互不覆盖
+        Long found = stringRedisTemplate.execute(INCR_SCRIPT,
+                Arrays.asList(SHOP_RANK_LOCATION_KEY, buffer.getKey()),
+                member, SHOP_RANK_KEY + metric + ":", String.valueOf(delta));
+        if (Long.valueOf(1).equals(found)) {
+            return;
+        }
+        //位置未知（如redis数据丢失），从数据库查询后补齐；找不到商铺时增量仍然回写数据库
+        Shop shop = shopMapper.selectOne(Wrappers.<Shop>query().select("id", "type_id", "area").eq("id", shopId));
+        if (shop == null) {
+            return;
+        }
+        stringRedisTemplate.opsForHash().putIfAbsent(SHOP_RANK_LOCATION_KEY, member, encodeLocation(shop));
+        Shop location = findLocation(shopId);
+        if (location == null) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keysOf(metric, location)) {
+                conn.zIncrBy(key, delta, member);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 新增或更新商铺，类型、商圈变化时把计数迁移到新的榜单，评分直接覆盖
+     * @param shop 商铺，需要包含id、typeId、area、sold、comments、score
+     */
+    public void put(Shop shop) {
+        String member = shop.getId().toString();
+        //先写入新位置，之后其他实例的累加进入新榜单，不会在迁移后重新写入旧榜单
+        Shop old = findLocation(shop.getId());
+        stringRedisTemplate.opsForHash().put(SHOP_RANK_LOCATION_KEY, member, encodeLocation(shop));
+        boolean moved = old != null
+                && (!Objects.equals(old.getTypeId(), shop.getTypeId()) || !Objects.equals(old.getArea(), shop.getArea()));
+        for (String metric : METRICS) {
+            double value = valueOf(shop, metric);
+            if (moved) {
+                //榜单中的计数可能包含未回写的增量，比数据库中的新
+                Double current = COUNTERS.contains(metric)
+                        ? stringRedisTemplate.opsForZSet().score(boardKey(metric, "type", old.getTypeId()), member)
+                        : null;
+                if (current != null) {
+                    value = current;
+                }
+                for (String key : keysOf(metric, old)) {
+                    stringRedisTemplate.opsForZSet().remove(key, member);
+                }
+            } else if (old != null && COUNTERS.contains(metric)) {
+                continue;
+            }
+            for (String key : keysOf(metric, shop)) {
+                stringRedisTemplate.opsForZSet().add(key, member, value);
+            }
+        }
+    }
+
+    /**
+     * 查询榜单前几名
+     * @param metric 排行指标
+     * @param typeId 商铺类型，与area二选一
+     * @param area 商圈
+     * @param limit 数量
+     * @return 按名次排序的商铺id
+     */
+    public List<Long> top(String metric, Long typeId, String area, int limit) {
+        String key = typeId != null ? boardKey(metric, "type", typeId) : boardKey(metric, "area", area);
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(key, 0, limit - 1);
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        return members.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 查询商铺在所属类型或商圈榜单中的名次
+     * @param shopId 商铺id
+     * @param metric 排行指标
+     * @param byArea true查商圈榜单，false查类型榜单
+     * @return 名次，商铺不存在或不在榜单中时返回null
+     */
+    public ShopRankDTO rankOf(Long shopId, String metric, boolean byArea) {
+        Shop location = findLocation(shopId);
+        if (location == null || (byArea && StrUtil.isBlank(location.getArea()))) {
+            return null;
+        }
+        String key = byArea ? boardKey(metric, "area", location.getArea()) : boardKey(metric, "type", location.getTypeId());
+        String member = shopId.toString();
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zRevRank(key, member);
+            conn.zScore(key, member);
+            return null;
+        });
+        if (results.get(0) == null) {
+            return null;
+        }
+        return new ShopRankDTO(shopId, (Long) results.get(0) + 1, (Double) results.get(1));
+    }
+
+    /**
+     * 把缓冲区中的销量、评论数增量批量回写tb_shop，多实例部署时只有拿到锁的实例执行
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.rank-flush-interval:60000}")
+    public void flush() {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_RANK_FLUSH_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            for (String metric : COUNTERS) {
+                //同一批增量在一个事务中回写，失败时整体保留到下次；提交后ack失败会重复回写一次，见CounterBuffer
+                Map<Long, Long> deltas = buffers.get(metric).flush(all -> transactionTemplate.executeWithoutResult(status ->
+                        CounterBuffer.partition(all, FLUSH_BATCH).forEach(batch -> shopMapper.incrCounters(metric, batch))));
+                if (deltas.isEmpty()) {
+                    continue;
+                }
+                //商铺详情缓存中的计数已过期
+                deltas.keySet().forEach(id -> cacheClient.invalidate(CACHE_SHOP_KEY, id));
+                log.debug("回写商铺{}，共{}个商铺", metric, deltas.size());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 类型榜单的key，按类型浏览商铺的列表直接读取该榜单
+     * @param metric 排行指标
+     * @param typeId 商铺类型
+     */
+    public static String typeBoardKey(String metric, Long typeId) {
+        return boardKey(metric, "type", typeId);
+    }
+
+    //redis中保存的商铺所在类型和商圈，不存在返回null
+    private Shop findLocation(Long shopId) {
+        Object location = stringRedisTemplate.opsForHash().get(SHOP_RANK_LOCATION_KEY, shopId.toString());
+        return location == null ? null : decodeLocation(shopId, location.toString());
+    }
+
+    //shop:rank:{metric}:type:{typeId} 和 shop:rank:{metric}:area:{area}
+    private static List<String> keysOf(String metric, Shop shop) {
+        List<String> keys = new ArrayList<>(2);
+        if (shop.getTypeId() != null) {
+            keys.add(boardKey(metric, "type", shop.getTypeId()));
+        }
+        if (StrUtil.isNotBlank(shop.getArea())) {
+            keys.add(boardKey(metric, "area", shop.getArea()));
+        }
+        return keys;
+    }
+
+    private static String boardKey(String metric, String scope, Object value) {
+        return SHOP_RANK_KEY + metric + ":" + scope + ":" + value;
+    }
+
+    //typeId:area，类型或商圈为空时对应部分为空字符串
+    static String encodeLocation(Shop shop) {
+        return (shop.getTypeId() == null ? "" : shop.getTypeId().toString())
+                + ":" + (shop.getArea() == null ? "" : shop.getArea());
+    }
+
+    static Shop decodeLocation(Long shopId, String location) {
+        int i = location.indexOf(':');
+        String typeId = location.substring(0, i);
+        String area = location.substring(i + 1);
+        return new Shop().setId(shopId)
+                .setTypeId(typeId.isEmpty() ? null : Long.valueOf(typeId))
+                .setArea(area.isEmpty() ? null : area);
+    }
+
+    private static double valueOf(Shop shop, String metric) {
+        Integer value;
+        switch (metric) {
+            case SOLD:
+                value = shop.getSold();
+                break;
+            case COMMENTS:
+                value = shop.getComments();
+                break;
+            default:
+                value = shop.getScore();
+        }
+        return value == null ? 0 : value;
+    }
+}
@@ -0,0 +1,301 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 商铺名称的n-gram倒排索引，替代 name LIKE '%kw%' 的全表扫描
+ * <p>
+ * 名称按Unicode码点切分，同时建立单字和二元组（bigram）的倒排表，中文按字切分即可命中。
+ * 关键词为一个字时直接取单字倒排表，否则对所有二元组的倒排表求交集，再用子串匹配去掉误命中。
+ * 结果按匹配质量排序：完全相同 > 前缀匹配 > 匹配位置靠前 > 名称更短 > id更小
+ * <p>
+ * 其他实例修改商铺后通过channel:shop:change通知，由ShopServiceImpl重新查询后调用put；
+ * 发布订阅不保证送达，定时全量重新加载兜底
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+    private static final long[] EMPTY = new long[0];
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    //gram -> 按id升序的商铺id
+    private Map<String, long[]> postings = new HashMap<>();
+    //shopId -> 归一化后的名称
+    private Map<Long, String> names = new HashMap<>();
+    //读写锁保护查询与修改，写入者之间用对象锁串行，避免加载期间的增量被加载结果覆盖
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void init() {
+        load();
+    }
+
+    /**
+     * 定时从tb_shop全量重新加载，修正发布订阅丢失的商铺变更
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.index-reload-interval:600000}",
+            initialDelayString = "${hmdp.shop.index-reload-interval:600000}")
+    public void reload() {
+        load();
+    }
+
+    /**
+     * 从tb_shop全量构建新的索引后整体替换，构建期间查询继续使用旧的索引
+     */
+    public synchronized void load() {
+        List<Shop> shops = shopMapper.selectList(Wrappers.<Shop>query().select("id", "name"));
+        //先追加到可扩容的列表，最后统一排序，避免常见的字（如“店”）每加入一个商铺就复制一次倒排表
+        Map<String, LongList> lists = new HashMap<>();
+        Map<Long, String> loadedNames = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            if (shop.getName() == null) {
+                continue;
+            }
+            String normalized = normalize(shop.getName());
+            loadedNames.put(shop.getId(), normalized);
+            for (String gram : grams(normalized)) {
+                lists.computeIfAbsent(gram, k -> new LongList()).add(shop.getId());
+            }
+        }
+        Map<String, long[]> loadedPostings = new HashMap<>(lists.size() * 2);
+        lists.forEach((gram, list) -> loadedPostings.put(gram, list.toSortedArray()));
+        lock.writeLock().lock();
+        try {
+            postings = loadedPostings;
+            names = loadedNames;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("商铺名称索引加载完成，共{}个商铺，{}个gram", loadedNames.size(), loadedPostings.size());
+    }
+
+    /**
+     * 新增或更新商铺名称
+     * @param shopId 商铺id
+     * @param name 商铺名称
+     */
+    public synchronized void put(Long shopId, String name) {
+        if (name == null) {
+            return;
+        }
+        String normalized = normalize(name);
+        lock.writeLock().lock();
+        try {
+            String old = names.put(shopId, normalized);
+            if (normalized.equals(old)) {
+                return;
+            }
+            if (old != null) {
+                for (String gram : grams(old)) {
+                    removePosting(gram, shopId);
+                }
+            }
+            for (String gram : grams(normalized)) {
+                addPosting(postings, gram, shopId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除商铺
+     * @param shopId 商铺id
+     */
+    public synchronized void remove(Long shopId) {
+        lock.writeLock().lock();
+        try {
+            String old = names.remove(shopId);
+            if (old != null) {
+                for (String gram : grams(old)) {
+                    removePosting(gram, shopId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 查询名称包含关键字的商铺
+     * @param keyword 关键字
+     * @return 按匹配质量排序的商铺id
+     */
+    public List<Long> search(String keyword) {
+        String q = normalize(keyword);
+        if (q.isEmpty()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            long[] candidates = candidates(q);
+            //排序键：匹配质量、名称长度、候选下标，候选按id升序，下标相同顺序即id升序
+            long[] keys = new long[candidates.length];
+            int n = 0;
+            for (int i = 0; i < candidates.length; i++) {
+                String name = names.get(candidates[i]);
+                //二元组全部命中不代表是连续子串，需要再校验一次
+                int index = name.indexOf(q);
+                if (index >= 0) {
+                    keys[n++] = (long) Math.min(rank(name, q, index), 0xFFFF) << 48
+                            | (long) Math.min(name.length(), 0xFFFF) << 32 | i;
+                }
+            }
+            //基本类型排序，避免关键字很宽泛时比较器反复查名称、计算匹配位置
+            Arrays.sort(keys, 0, n);
+            List<Long> ids = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                ids.add(candidates[(int) keys[i]]);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private long[] candidates(String q) {
+        Set<String> grams = queryGrams(q);
+        //从最短的倒排表开始求交集
+        List<long[]> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            long[] list = postings.get(gram);
+            if (list == null) {
+                return EMPTY;
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        long[] result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    //匹配质量，越小越靠前
+    private static int rank(String name, String q, int index) {
+        if (index == 0) {
+            return name.length() == q.length() ? 0 : 1;
+        }
+        return 2 + index;
+    }
+
+    private static void addPosting(Map<String, long[]> postings, String gram, long id) {
+        long[] list = postings.getOrDefault(gram, EMPTY);
+        int pos = Arrays.binarySearch(list, id);
+        if (pos >= 0) {
+            return;
+        }
+        pos = -pos - 1;
+        long[] updated = new long[list.length + 1];
+        System.arraycopy(list, 0, updated, 0, pos);
+        updated[pos] = id;
+        System.arraycopy(list, pos, updated, pos + 1, list.length - pos);
+        postings.put(gram, updated);
+    }
+
+    private void removePosting(String gram, long id) {
+        long[] list = postings.get(gram);
+        if (list == null) {
+            return;
+        }
+        int pos = Arrays.binarySearch(list, id);
+        if (pos < 0) {
+            return;
+        }
+        if (list.length == 1) {
+            postings.remove(gram);
+            return;
+        }
+        long[] updated = new long[list.length - 1];
+        System.arraycopy(list, 0, updated, 0, pos);
+        System.arraycopy(list, pos + 1, updated, pos, list.length - pos - 1);
+        postings.put(gram, updated);
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    //名称建立索引用的gram：所有单字和二元组
+    private static Set<String> grams(String s) {
+        int[] cps = s.codePoints().toArray();
+        Set<String> grams = new HashSet<>(cps.length * 2);
+        for (int i = 0; i < cps.length; i++) {
+            grams.add(new String(cps, i, 1));
+            if (i + 1 < cps.length) {
+                grams.add(new String(cps, i, 2));
+            }
+        }
+        return grams;
+    }
+
+    //关键字查询用的gram：一个字查单字，否则只查二元组
+    private static Set<String> queryGrams(String q) {
+        int[] cps = q.codePoints().toArray();
+        if (cps.length == 1) {
+            return Collections.singleton(q);
+        }
+        Set<String> grams = new HashSet<>(cps.length);
+        for (int i = 0; i + 1 < cps.length; i++) {
+            grams.add(new String(cps, i, 2));
+        }
+        return grams;
+    }
+
+    /**
+     * 归一化：全角转半角、转小写、去掉空白，索引和查询使用同一规则
+     */
+    public static String normalize(String s) {
+        if (StrUtil.isBlank(s)) {
+            return "";
+        }
+        return StrUtil.cleanBlank(Normalizer.normalize(s, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT));
+    }
+
+    //加载时的倒排表
+    private static class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        long[] toSortedArray() {
+            long[] array = Arrays.copyOf(values, size);
+            Arrays.sort(array);
+            return array;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按商铺类型划分的进程内空间索引，启动时从tb_shop加载，新增、修改商铺时增量更新
+ * <p>
+ * 其他实例修改商铺后通过channel:shop:change通知，由ShopServiceImpl重新查询后调用put；
+ * 发布订阅不保证送达，定时全量重新加载兜底
+ */
+@Slf4j
+@Component
+public class ShopSpatialIndex {
+    //网格边长0.01度，约1公里
+    private static final double CELL_SIZE = 0.01;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    //typeId -> 空间索引，加载完成后整体替换
+    private volatile Map<Long, SpatialGridIndex> indexes = new ConcurrentHashMap<>();
+    //shopId -> typeId，用于商铺变更类型时从旧索引删除
+    private volatile Map<Long, Long> typeOfShop = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        load();
+    }
+
+    /**
+     * 定时从tb_shop全量重新加载，修正发布订阅丢失的商铺变更
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.index-reload-interval:600000}",
+            initialDelayString = "${hmdp.shop.index-reload-interval:600000}")
+    public void reload() {
+        load();
+    }
+
+    /**
+     * 从tb_shop全量构建新的索引后整体替换，构建期间查询继续使用旧的索引。
+     * 与put、remove互斥，避免加载期间的增量被加载结果覆盖
+     */
+    public synchronized void load() {
+        List<Shop> shops = shopMapper.selectList(Wrappers.<Shop>query().select("id", "type_id", "x", "y"));
+        Map<Long, SpatialGridIndex> loadedIndexes = new ConcurrentHashMap<>();
+        Map<Long, Long> loadedTypeOfShop = new ConcurrentHashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            put(loadedIndexes, loadedTypeOfShop, shop);
+        }
+        indexes = loadedIndexes;
+        typeOfShop = loadedTypeOfShop;
+        log.debug("商铺空间索引加载完成，共{}个商铺", loadedTypeOfShop.size());
+    }
+
+    /**
+     * 新增或更新商铺坐标
+     * @param shop 商铺，需要包含id、typeId、x、y
+     */
+    public synchronized void put(Shop shop) {
+        put(indexes, typeOfShop, shop);
+    }
+
+    /**
+     * 删除商铺
+     * @param shopId 商铺id
+     */
+    public synchronized void remove(Long shopId) {
+        Long typeId = typeOfShop.remove(shopId);
+        if (typeId != null) {
+            indexes.get(typeId).remove(shopId);
+        }
+    }
+
+    private static void put(Map<Long, SpatialGridIndex> indexes, Map<Long, Long> typeOfShop, Shop shop) {
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            return;
+        }
+        Long oldTypeId = typeOfShop.put(shop.getId(), shop.getTypeId());
+        if (oldTypeId != null && !oldTypeId.equals(shop.getTypeId())) {
+            indexes.get(oldTypeId).remove(shop.getId());
+        }
+        indexes.computeIfAbsent(shop.getTypeId(), k -> new SpatialGridIndex(CELL_SIZE))
+                .put(shop.getId(), shop.getX(), shop.getY());
+    }
+
+    /**
+     * 查询某类型下距离最近的k个商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param k 数量
+     * @param maxRadius 最大距离，单位米
+     * @return 按距离由近到远排序的商铺id和距离
+     */
+    public List<SpatialGridIndex.Hit> nearest(Long typeId, double x, double y, int k, double maxRadius) {
+        SpatialGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.nearest(x, y, k, maxRadius);
+    }
+
+    /**
+     * 按距离游标查询某类型下上一页之后最近的k个商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param k 数量
+     * @param maxRadius 最大距离，单位米
+     * @param after 上一页最后一个商铺的距离，第一页传-1
+     * @param excluded 距离等于after且已经返回过的商铺
+     * @return 按距离由近到远排序的商铺id和距离
+     */
+    public List<SpatialGridIndex.Hit> nearest(Long typeId, double x, double y, int k, double maxRadius, double after, Set<Long> excluded) {
+        SpatialGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.nearest(x, y, k, maxRadius, after, excluded);
+    }
+
+    /**
+     * 查询某类型下半径内的商铺
+     * @param typeId 商铺类型
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径，单位米
+     * @return 按距离由近到远排序的商铺id和距离
+     */
+    public List<SpatialGridIndex.Hit> within(Long typeId, double x, double y, double radius) {
+        SpatialGridIndex index = indexes.get(typeId);
+        return index == null ? Collections.emptyList() : index.within(x, y, radius);
+    }
+}
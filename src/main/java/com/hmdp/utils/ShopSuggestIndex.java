@@ -0,0 +1,329 @@
+package com.hmdp.utils;
+
+import cn.hutool.extra.pinyin.PinyinUtil;
+import com.baomidou.mybatisplus.core.toolkit.Wrappers;
+import com.hmdp.dto.ShopSuggestDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 商铺名称前缀联想索引
+ * <p>
+ * 每个商铺生成三个联想词：名称、全拼、拼音首字母，所有联想词按字典序保存在有序数组中，
+ * 查询时二分定位前缀区间，再按权重（销量、评分）取前K个。一两个字的短前缀区间很大，
+ * 提前算好它们的前K个结果，查询时直接返回。
+ * <p>
+ * 数组在写入时复制（商铺变更远少于联想查询），查询读取的是不可变快照，不需要加锁。
+ * 其他实例修改商铺后通过channel:shop:change通知，由ShopServiceImpl重新查询后调用put；
+ * 发布订阅不保证送达，定时全量重建兜底
+ */
+@Slf4j
+@Component
+public class ShopSuggestIndex {
+    //最多返回的联想数量
+    public static final int TOP_K = 10;
+    //不超过该长度的前缀提前计算结果
+    private static final int SHORT_PREFIX = 2;
+
+    @Resource
+    private ShopMapper shopMapper;
+
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new long[0], new double[0], Collections.emptyMap());
+    //shopId -> 展示用的名称
+    private final Map<Long, String> names = new ConcurrentHashMap<>();
+    //shopId -> 联想词
+    private Map<Long, String[]> keysOfShop = new HashMap<>();
+
+    @PostConstruct
+    public void init() {
+        load();
+    }
+
+    /**
+     * 定时从tb_shop全量重建，修正发布订阅丢失的商铺变更
+     */
+    @Scheduled(fixedDelayString = "${hmdp.shop.index-reload-interval:600000}",
+            initialDelayString = "${hmdp.shop.index-reload-interval:600000}")
+    public void reload() {
+        load();
+    }
+
+    /**
+     * 从tb_shop全量构建新的快照后整体替换，与put、remove互斥，避免加载期间的增量被加载结果覆盖
+     */
+    public synchronized void load() {
+        List<Shop> shops = shopMapper.selectList(Wrappers.<Shop>query().select("id", "name", "sold", "score"));
+        List<Entry> entries = new ArrayList<>(shops.size() * 3);
+        Map<Long, String> loadedNames = new HashMap<>(shops.size() * 2);
+        Map<Long, String[]> loadedKeys = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            if (shop.getName() == null) {
+                continue;
+            }
+            String[] keys = keysOf(shop.getName());
+            loadedKeys.put(shop.getId(), keys);
+            loadedNames.put(shop.getId(), shop.getName());
+            double weight = weightOf(shop);
+            for (String key : keys) {
+                entries.add(new Entry(key, shop.getId(), weight));
+            }
+        }
+        entries.sort(Entry.ORDER);
+        String[] keys = new String[entries.size()];
+        long[] ids = new long[entries.size()];
+        double[] weights = new double[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            keys[i] = entries.get(i).key;
+            ids[i] = entries.get(i).id;
+            weights[i] = entries.get(i).weight;
+        }
+        Set<String> prefixes = new HashSet<>();
+        for (String key : keys) {
+            prefixes.addAll(shortPrefixes(key));
+        }
+        Map<String, long[]> tops = new HashMap<>(prefixes.size() * 2);
+        for (String prefix : prefixes) {
+            tops.put(prefix, topK(keys, ids, weights, prefix));
+        }
+        //先补齐新快照中的名称，替换快照后再删除已不存在的商铺，查询不会读到没有名称的商铺
+        names.putAll(loadedNames);
+        keysOfShop = loadedKeys;
+        snapshot = new Snapshot(keys, ids, weights, tops);
+        names.keySet().retainAll(loadedNames.keySet());
+        log.debug("商铺联想索引加载完成，共{}个联想词，{}个短前缀", snapshot.keys.length, snapshot.tops.size());
+    }
+
+    /**
+     * 新增或更新商铺，名称未变时只更新权重
+     * @param shop 商铺，需要包含id、name、sold、score
+     */
+    public synchronized void put(Shop shop) {
+        if (shop.getName() == null) {
+            return;
+        }
+        Long shopId = shop.getId();
+        names.put(shopId, shop.getName());
+        String[] oldKeys = keysOfShop.getOrDefault(shopId, new String[0]);
+        String[] newKeys = keysOf(shop.getName());
+        keysOfShop.put(shopId, newKeys);
+        rebuild(shopId, oldKeys, newKeys, weightOf(shop));
+    }
+
+    /**
+     * 删除商铺
+     * @param shopId 商铺id
+     */
+    public synchronized void remove(Long shopId) {
+        String[] oldKeys = keysOfShop.remove(shopId);
+        if (oldKeys == null) {
+            return;
+        }
+        rebuild(shopId, oldKeys, new String[0], 0);
+        names.remove(shopId);
+    }
+
+    /**
+     * 前缀联想
+     * @param prefix 用户输入的前缀，支持名称、全拼、拼音首字母
+     * @param limit 返回数量，不超过TOP_K
+     * @return 按权重排序的商铺
+     */
+    public List<ShopSuggestDTO> suggest(String prefix, int limit) {
+        String p = ShopNameIndex.normalize(prefix);
+        if (p.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Snapshot s = snapshot;
+        long[] ids = p.codePointCount(0, p.length()) <= SHORT_PREFIX ? s.tops.get(p) : topK(s.keys, s.ids, s.weights, p);
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        int n = Math.min(Math.min(limit, TOP_K), ids.length);
+        List<ShopSuggestDTO> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(new ShopSuggestDTO(ids[i], names.get(ids[i])));
+        }
+        return result;
+    }
+
+    //去掉商铺的旧联想词、插入新联想词，并重新计算受影响的短前缀
+    private void rebuild(Long shopId, String[] oldKeys, String[] newKeys, double weight) {
+        Snapshot s = snapshot;
+        List<Entry> added = new ArrayList<>(newKeys.length);
+        for (String key : newKeys) {
+            added.add(new Entry(key, shopId, weight));
+        }
+        added.sort(Entry.ORDER);
+        //归并：跳过该商铺原有的联想词
+        int size = s.keys.length - oldKeys.length + newKeys.length;
+        String[] keys = new String[size];
+        long[] ids = new long[size];
+        double[] weights = new double[size];
+        int i = 0, j = 0, n = 0;
+        while (i < s.keys.length || j < added.size()) {
+            if (i < s.keys.length && s.ids[i] == shopId) {
+                i++;
+                continue;
+            }
+            boolean takeOld = j >= added.size()
+                    || (i < s.keys.length && Entry.compare(s.keys[i], s.ids[i], added.get(j).key, added.get(j).id) <= 0);
+            if (takeOld) {
+                keys[n] = s.keys[i];
+                ids[n] = s.ids[i];
+                weights[n++] = s.weights[i++];
+            } else {
+                Entry entry = added.get(j++);
+                keys[n] = entry.key;
+                ids[n] = entry.id;
+                weights[n++] = entry.weight;
+            }
+        }
+        if (n != size) {
+            keys = Arrays.copyOf(keys, n);
+            ids = Arrays.copyOf(ids, n);
+            weights = Arrays.copyOf(weights, n);
+        }
+        //权重变化也会影响排序，新旧联想词的短前缀都要重新计算
+        Set<String> affected = new HashSet<>();
+        for (String key : oldKeys) {
+            affected.addAll(shortPrefixes(key));
+        }
+        for (String key : newKeys) {
+            affected.addAll(shortPrefixes(key));
+        }
+        Map<String, long[]> tops = new HashMap<>(s.tops);
+        for (String prefix : affected) {
+            long[] top = topK(keys, ids, weights, prefix);
+            if (top.length == 0) {
+                tops.remove(prefix);
+            } else {
+                tops.put(prefix, top);
+            }
+        }
+        snapshot = new Snapshot(keys, ids, weights, tops);
+    }
+
+    //在前缀区间内按权重取前K个不重复的商铺，用长度为K的有序数组做插入排序，避免装箱
+    private static long[] topK(String[] keys, long[] ids, double[] weights, String prefix) {
+        int from = lowerBound(keys, prefix);
+        int to = lowerBound(keys, prefix + Character.MAX_VALUE);
+        long[] topIds = new long[TOP_K];
+        double[] topWeights = new double[TOP_K];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            long id = ids[i];
+            double weight = weights[i];
+            if (size == TOP_K && !better(weight, id, topWeights[size - 1], topIds[size - 1])) {
+                continue;
+            }
+            //同一商铺的多个联想词权重相同，已在结果中则跳过
+            boolean exists = false;
+            for (int k = 0; k < size; k++) {
+                if (topIds[k] == id) {
+                    exists = true;
+                    break;
+                }
+            }
+            if (exists) {
+                continue;
+            }
+            int pos = size < TOP_K ? size++ : size - 1;
+            while (pos > 0 && better(weight, id, topWeights[pos - 1], topIds[pos - 1])) {
+                topIds[pos] = topIds[pos - 1];
+                topWeights[pos] = topWeights[pos - 1];
+                pos--;
+            }
+            topIds[pos] = id;
+            topWeights[pos] = weight;
+        }
+        return Arrays.copyOf(topIds, size);
+    }
+
+    //权重高的靠前，权重相同id小的靠前
+    private static boolean better(double w1, long id1, double w2, long id2) {
+        return w1 > w2 || (w1 == w2 && id1 < id2);
+    }
+
+    private static int lowerBound(String[] keys, String target) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(target) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static List<String> shortPrefixes(String key) {
+        List<String> prefixes = new ArrayList<>(SHORT_PREFIX);
+        int end = 0;
+        for (int i = 0; i < SHORT_PREFIX && end < key.length(); i++) {
+            end = key.offsetByCodePoints(end, 1);
+            prefixes.add(key.substring(0, end));
+        }
+        return prefixes;
+    }
+
+    //联想词：名称、全拼、拼音首字母
+    private static String[] keysOf(String name) {
+        String normalized = ShopNameIndex.normalize(name);
+        Set<String> keys = new LinkedHashSet<>(4);
+        keys.add(normalized);
+        keys.add(ShopNameIndex.normalize(PinyinUtil.getPinyin(name, "")));
+        keys.add(ShopNameIndex.normalize(PinyinUtil.getFirstLetter(name, "")));
+        keys.remove("");
+        return keys.toArray(new String[0]);
+    }
+
+    //权重：评分（1~5分乘10）乘以销量的对数
+    private static double weightOf(Shop shop) {
+        int sold = shop.getSold() == null ? 0 : shop.getSold();
+        int score = shop.getScore() == null ? 0 : shop.getScore();
+        return (score + 1) * Math.log1p(sold);
+    }
+
+    private static class Snapshot {
+        private final String[] keys;
+        private final long[] ids;
+        private final double[] weights;
+        //短前缀 -> 前K个商铺id
+        private final Map<String, long[]> tops;
+
+        Snapshot(String[] keys, long[] ids, double[] weights, Map<String, long[]> tops) {
+            this.keys = keys;
+            this.ids = ids;
+            this.weights = weights;
+            this.tops = tops;
+        }
+    }
+
+    private static class Entry {
+        static final Comparator<Entry> ORDER = (a, b) -> compare(a.key, a.id, b.key, b.id);
+
+        private final String key;
+        private final long id;
+        private final double weight;
+
+        Entry(String key, long id, double weight) {
+            this.key = key;
+            this.id = id;
+            this.weight = weight;
+        }
+
+        static int compare(String k1, long id1, String k2, long id2) {
+            int c = k1.compareTo(k2);
+            return c != 0 ? c : Long.compare(id1, id2);
+        }
+    }
+}
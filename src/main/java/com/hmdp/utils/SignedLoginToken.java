@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import cn.hutool.bloomfilter.BitSetBloomFilter;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.RegisteredPayload;
+import com.hmdp.dto.UserDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * HMAC签名的登录令牌（JWT，HS256），hmdp.login.mode=signed时使用
+ * <p>
+ * 令牌中包含用户id、昵称、头像和过期时间，拦截器本地验签即可得到用户，不访问redis。
+ * 登出的令牌写入redis的吊销列表 login:revoked（分数为令牌过期时间），各实例在本地布隆过滤器中记录，
+ * 过滤器判断不存在时直接放行，判断可能存在时再查redis确认。过滤器定期从吊销列表重建，顺便清理已过期的令牌。
+ * 过滤器内部的BitSet不是线程安全的，验签时加读锁，记录吊销时加写锁；重建时建好新的过滤器后整体替换
+ * <p>
+ * 令牌签发后不能续期，昵称、头像修改后重新登录才会更新
+ */
+@Slf4j
+@Component
+public class SignedLoginToken {
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    @Value("${hmdp.login.mode:redis}")
+    private String mode;
+
+    //签名密钥，所有实例必须相同
+    @Value("${hmdp.login.secret:}")
+    private String secret;
+
+    //布隆过滤器预计容纳的吊销令牌数
+    @Value("${hmdp.login.revoked-capacity:100000}")
+    private int revokedCapacity;
+
+    private byte[] key;
+    private volatile BitSetBloomFilter revoked;
+    //保护过滤器的读写，吊销很少，验签之间不互斥
+    private final ReentrantReadWriteLock revokedLock = new ReentrantReadWriteLock();
+
+    @PostConstruct
+    public void init() {
+        if (!"signed".equals(mode)) {
+            return;
+        }
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("hmdp.login.mode=signed时必须配置hmdp.login.secret");
+        }
+        key = secret.getBytes(StandardCharsets.UTF_8);
+        //先建好过滤器再订阅，否则启动期间收到的通知没有过滤器可写；建好之后、订阅之前的吊销由定时重建补上
+        syncRevoked();
+        //其他实例登出后，消息内容为令牌id
+        redisMessageListenerContainer.addMessageListener((message, pattern) ->
+                markRevoked(new String(message.getBody(), StandardCharsets.UTF_8)), new ChannelTopic(LOGIN_REVOKED_CHANNEL));
+    }
+
+    /**
+     * 签发令牌
+     * @param user 登录用户
+     * @return 令牌
+     */
+    public String issue(UserDTO user) {
+        long expiresAt = System.currentTimeMillis() + LOGIN_USER_TTL * 1000;
+        return JWT.create()
+                .setJWTId(UUID.fastUUID().toString(true))
+                .setExpiresAt(new Date(expiresAt))
+                .setPayload("id", user.getId())
+                .setPayload("nickName", user.getNickName())
+                .setPayload("icon", user.getIcon())
+                .setKey(key)
+                .sign();
+    }
+
+    /**
+     * 验签并解析令牌
+     * @param token 令牌
+     * @return 用户，签名错误、已过期或已吊销时返回null
+     */
+    public UserDTO verify(String token) {
+        JWT jwt = parse(token);
+        if (jwt == null) {
+            return null;
+        }
+        //布隆过滤器没有误判为不存在的情况，判断可能存在时再查redis，排除误判
+        String jwtId = (String) jwt.getPayload(RegisteredPayload.JWT_ID);
+        if (mayBeRevoked(jwtId)
+                && stringRedisTemplate.opsForZSet().score(LOGIN_REVOKED_KEY, jwtId) != null) {
+            return null;
+        }
+        UserDTO user = new UserDTO();
+        user.setId(Long.valueOf(jwt.getPayload("id").toString()));
+        user.setNickName((String) jwt.getPayload("nickName"));
+        user.setIcon((String) jwt.getPayload("icon"));
+        return user;
+    }
+
+    /**
+     * 吊销令牌，所有实例立即生效
+     * @param token 令牌
+     */
+    public void revoke(String token) {
+        JWT jwt = parse(token);
+        if (jwt == null) {
+            return;
+        }
+        String jwtId = (String) jwt.getPayload(RegisteredPayload.JWT_ID);
+        long expiresAt = Long.parseLong(jwt.getPayload(RegisteredPayload.EXPIRES_AT).toString());
+        //先写吊销列表再通知，重建过滤器时不会漏掉
+        stringRedisTemplate.opsForZSet().add(LOGIN_REVOKED_KEY, jwtId, expiresAt);
+        markRevoked(jwtId);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKED_CHANNEL, jwtId);
+    }
+
+    /**
+     * 清理已过期的吊销记录，并用吊销列表重建布隆过滤器，弥补丢失的通知
+     */
+    @Scheduled(fixedDelayString = "${hmdp.login.revoked-sync-interval:300000}")
+    public synchronized void syncRevoked() {
+        if (!"signed".equals(mode)) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_REVOKED_KEY, 0, System.currentTimeMillis() / 1000);
+        Set<String> jwtIds = stringRedisTemplate.opsForZSet().range(LOGIN_REVOKED_KEY, 0, -1);
+        BitSetBloomFilter filter = new BitSetBloomFilter(revokedCapacity * 2, revokedCapacity, 8);
+        if (jwtIds != null) {
+            jwtIds.forEach(filter::add);
+        }
+        revoked = filter;
+        log.debug("吊销令牌过滤器重建完成，共{}个令牌", jwtIds == null ? 0 : jwtIds.size());
+    }
+
+    //与重建互斥，重建期间收到的通知在重建后写入新的过滤器
+    private synchronized void markRevoked(String jwtId) {
+        revokedLock.writeLock().lock();
+        try {
+            revoked.add(jwtId);
+        } finally {
+            revokedLock.writeLock().unlock();
+        }
+    }
+
+    private boolean mayBeRevoked(String jwtId) {
+        revokedLock.readLock().lock();
+        try {
+            return revoked.contains(jwtId);
+        } finally {
+            revokedLock.readLock().unlock();
+        }
+    }
+
+    //验签并校验过期时间，格式错误也返回null
+    private JWT parse(String token) {
+        try {
+            JWT jwt = JWT.of(token).setKey(key);
+            return jwt.validate(0) ? jwt : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
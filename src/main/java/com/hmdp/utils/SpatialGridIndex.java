@@ -0,0 +1,279 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内的均匀网格空间索引，坐标为经纬度，距离单位为米
+ * <p>
+ * 点的id和坐标保存在基本类型数组中，每个网格只记录点所在数组下标，
+ * 删除时把最后一个点移动到空位，避免数组出现空洞
+ */
+public class SpatialGridIndex {
+    //地球平均半径，单位米
+    private static final double EARTH_RADIUS = 6371008.8;
+    //纬度1度对应的距离，单位米
+    private static final double METERS_PER_DEGREE = Math.PI * EARTH_RADIUS / 180;
+
+    //网格边长，单位度
+    private final double cellSize;
+    private long[] ids = new long[16];
+    private double[] xs = new double[16];
+    private double[] ys = new double[16];
+    private int size;
+    //id -> 数组下标
+    private final Map<Long, Integer> slots = new HashMap<>();
+    //网格编号 -> 网格内的数组下标
+    private final Map<Long, IntList> cells = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * @param cellSize 网格边长，单位度，0.01度约为1公里
+     */
+    public SpatialGridIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * 新增或移动一个点
+     */
+    public void put(long id, double x, double y) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(id);
+            if (size == ids.length) {
+                int capacity = size << 1;
+                ids = Arrays.copyOf(ids, capacity);
+                xs = Arrays.copyOf(xs, capacity);
+                ys = Arrays.copyOf(ys, capacity);
+            }
+            int slot = size++;
+            ids[slot] = id;
+            xs[slot] = x;
+            ys[slot] = y;
+            slots.put(id, slot);
+            cells.computeIfAbsent(cellOf(x, y), k -> new IntList()).add(slot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除一个点
+     */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 半径查询，结果按距离由近到远排序
+     * @param x 经度
+     * @param y 纬度
+     * @param radius 半径，单位米
+     * @return 半径内的点
+     */
+    public List<Hit> within(double x, double y, double radius) {
+        lock.readLock().lock();
+        try {
+            List<Hit> hits = new ArrayList<>();
+            double dy = radius / METERS_PER_DEGREE;
+            double dx = dy / Math.max(Math.cos(Math.toRadians(y)), 1e-6);
+            long minCx = cellIndex(x - dx), maxCx = cellIndex(x + dx);
+            long minCy = cellIndex(y - dy), maxCy = cellIndex(y + dy);
+            for (long cx = minCx; cx <= maxCx; cx++) {
+                for (long cy = minCy; cy <= maxCy; cy++) {
+                    IntList cell = cells.get(cellKey(cx, cy));
+                    if (cell == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < cell.size; i++) {
+                        int slot = cell.values[i];
+                        double distance = distance(x, y, xs[slot], ys[slot]);
+                        if (distance <= radius) {
+                            hits.add(new Hit(ids[slot], distance));
+                        }
+                    }
+                }
+            }
+            hits.sort(Comparator.comparingDouble(Hit::getDistance));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * k近邻查询，从中心网格一圈圈向外扩展，当第k近的点比未搜索区域更近时停止
+     * @param x 经度
+     * @param y 纬度
+     * @param k 返回数量
+     * @param maxRadius 最大搜索半径，单位米
+     * @return 最近的k个点，按距离由近到远排序
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxRadius) {
+        return nearest(x, y, k, maxRadius, -1, Collections.emptySet());
+    }
+
+    /**
+     * 按距离游标的k近邻查询，跳过距离小于after的点，以及距离等于after且已经返回过的点
+     * @param x 经度
+     * @param y 纬度
+     * @param k 返回数量
+     * @param maxRadius 最大搜索半径，单位米
+     * @param after 上一页最后一个点的距离，第一页传-1
+     * @param excluded 距离等于after且已经返回过的点
+     * @return after之后最近的k个点，按距离由近到远排序
+     */
+    public List<Hit> nearest(double x, double y, int k, double maxRadius, double after, Set<Long> excluded) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            //大顶堆，堆顶为当前第k近的点
+            PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, Comparator.comparingDouble(Hit::getDistance).reversed());
+            long cx0 = cellIndex(x), cy0 = cellIndex(y);
+            //经度方向1度的距离随纬度缩小，用它估算一圈网格能保证的最小距离
+            double metersPerCell = cellSize * METERS_PER_DEGREE * Math.cos(Math.toRadians(Math.min(Math.abs(y) + cellSize, 90)));
+            int maxRing = (int) Math.ceil(maxRadius / Math.max(metersPerCell, 1e-6)) + 1;
+            for (int ring = 0; ring <= maxRing; ring++) {
+                for (long cx = cx0 - ring; cx <= cx0 + ring; cx++) {
+                    //只遍历这一圈的边界网格
+                    long step = (cx == cx0 - ring || cx == cx0 + ring) ? 1 : Math.max(2L * ring, 1);
+                    for (long cy = cy0 - ring; cy <= cy0 + ring; cy += step) {
+                        IntList cell = cells.get(cellKey(cx, cy));
+                        if (cell == null) {
+                            continue;
+                        }
+                        for (int i = 0; i < cell.size; i++) {
+                            int slot = cell.values[i];
+                            double distance = distance(x, y, xs[slot], ys[slot]);
+                            if (distance > maxRadius || distance < after
+                                    || (distance == after && excluded.contains(ids[slot]))) {
+                                continue;
+                            }
+                            if (heap.size() < k) {
+                                heap.add(new Hit(ids[slot], distance));
+                            } else if (distance < heap.peek().getDistance()) {
+                                heap.poll();
+                                heap.add(new Hit(ids[slot], distance));
+                            }
+                        }
+                    }
+                }
+                //未搜索的网格距离中心至少ring个网格
+                if (heap.size() == k && heap.peek().getDistance() <= ring * metersPerCell) {
+                    break;
+                }
+                if (size == 0 || (heap.size() == size)) {
+                    break;
+                }
+            }
+            List<Hit> hits = new ArrayList<>(heap);
+            hits.sort(Comparator.comparingDouble(Hit::getDistance));
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeInternal(long id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return;
+        }
+        removeFromCell(cellOf(xs[slot], ys[slot]), slot);
+        int last = --size;
+        if (slot != last) {
+            //把最后一个点移动到被删除的位置
+            long lastCell = cellOf(xs[last], ys[last]);
+            ids[slot] = ids[last];
+            xs[slot] = xs[last];
+            ys[slot] = ys[last];
+            slots.put(ids[slot], slot);
+            cells.get(lastCell).replace(last, slot);
+        }
+    }
+
+    private void removeFromCell(long cellKey, int slot) {
+        IntList cell = cells.get(cellKey);
+        cell.remove(slot);
+        if (cell.size == 0) {
+            cells.remove(cellKey);
+        }
+    }
+
+    private long cellIndex(double degree) {
+        return (long) Math.floor(degree / cellSize);
+    }
+
+    private long cellOf(double x, double y) {
+        return cellKey(cellIndex(x), cellIndex(y));
+    }
+
+    private static long cellKey(long cx, long cy) {
+        return (cx << 32) ^ (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 两个经纬度之间的球面距离（haversine），单位米
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1), lat2 = Math.toRadians(y2);
+        double dLat = lat2 - lat1;
+        double dLon = Math.toRadians(x2 - x1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Hit {
+        private long id;
+        private double distance;
+    }
+
+    //网格内的数组下标列表
+    private static class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size << 1);
+            }
+            values[size++] = value;
+        }
+
+        void remove(int value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        void replace(int oldValue, int newValue) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == oldValue) {
+                    values[i] = newValue;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -5,4 +5,16 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    // 博文详情展示的点赞用户数量
+    public static final int BLOG_LIKERS_PREVIEW = 5;
+    // 一级评论下预览的回复数量
+    public static final int COMMENT_REPLY_PREVIEW = 3;
+    // 批量查询用户详情的最大数量
+    public static final int USER_INFO_BATCH_SIZE = 100;
+    // 个人介绍的最大长度
+    public static final int INTRODUCE_MAX_LENGTH = 128;
+    // 评论内容的最大长度
+    public static final int COMMENT_MAX_LENGTH = 255;
+    // 附近商铺查询半径，单位米
+    public static final double SHOP_GEO_RADIUS = 5000;
 }
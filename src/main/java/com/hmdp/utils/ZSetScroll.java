@@ -0,0 +1,156 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+
+/**
+ * 按分数倒序滚动分页读取ZSET
+ * <p>
+ * 每页记录最后一个元素的分数max，以及与max分数相同、已经返回过的元素个数offset，
+ * 下一页从 score <= max 开始并跳过offset个元素。与按下标分页不同，期间有新元素写入时也不会重复或遗漏
+ */
+@Data
+public class ZSetScroll {
+    /**
+     * 本页的元素，按分数倒序
+     */
+    private List<String> members;
+    /**
+     * 本页元素的分数
+     */
+    private List<Double> scores;
+    /**
+     * 本页最后一个元素的分数，作为下一页的max
+     */
+    private double min;
+    /**
+     * 下一页需要跳过的元素个数
+     */
+    private int offset;
+
+    /**
+     * 查询一页
+     * @param stringRedisTemplate redis
+     * @param key ZSET的key
+     * @param max 上一页返回的min，第一页传Double.POSITIVE_INFINITY
+     * @param offset 上一页返回的offset，第一页传0
+     * @param count 每页数量
+     * @return 本页数据，没有数据时members为空
+     */
+    public static ZSetScroll scroll(StringRedisTemplate stringRedisTemplate, String key, double max, int offset, int count) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(key, Double.NEGATIVE_INFINITY, max, offset, count);
+        List<String> members = new ArrayList<>(tuples == null ? 0 : tuples.size());
+        List<Double> scores = new ArrayList<>(members.size());
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                members.add(tuple.getValue());
+                scores.add(tuple.getScore() == null ? 0 : tuple.getScore());
+            }
+        }
+        return of(members, scores, max, offset);
+    }
+
+    /**
+     * 把多个ZSET当作一个整体查询一页，每个ZSET各取offset+count个后做k路归并，相同的元素只返回一次
+     * @param stringRedisTemplate redis
+     * @param keys ZSET的key
+     * @param max 上一页返回的min，第一页传Double.POSITIVE_INFINITY
+     * @param offset 上一页返回的offset，第一页传0
+     * @param count 每页数量
+     * @return 本页数据，没有数据时members为空
+     */
+    @SuppressWarnings("unchecked")
+    public static ZSetScroll merge(StringRedisTemplate stringRedisTemplate, List<String> keys, double max, int offset, int count) {
+        //1.一次pipeline读取所有ZSET
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, Double.NEGATIVE_INFINITY, max, 0, offset + count);
+            }
+            return null;
+        });
+        List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+        for (Object result : results) {
+            sources.add(result == null ? Collections.emptyList() : new ArrayList<>((Set<ZSetOperations.TypedTuple<String>>) result));
+        }
+        return merge(sources, max, offset, count);
+    }
+
+    /**
+     * 归并多个ZSET读取到的元素，每个来源按ZREVRANGEBYSCORE的顺序，包含 score <= max 的前offset+count个
+     */
+    static ZSetScroll merge(List<List<ZSetOperations.TypedTuple<String>>> sources, double max, int offset, int count) {
+        //2.k路归并，堆中保存{来源下标, 元素下标}，顺序与单个ZSET的ZREVRANGE一致：分数倒序，分数相同时元素倒序
+        Comparator<int[]> order = (a, b) -> {
+            ZSetOperations.TypedTuple<String> x = sources.get(a[0]).get(a[1]);
+            ZSetOperations.TypedTuple<String> y = sources.get(b[0]).get(b[1]);
+            int c = Double.compare(scoreOf(y), scoreOf(x));
+            return c != 0 ? c : y.getValue().compareTo(x.getValue());
+        };
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Math.max(sources.size(), 1), order);
+        for (int i = 0; i < sources.size(); i++) {
+            if (!sources.get(i).isEmpty()) {
+                heap.add(new int[]{i, 0});
+            }
+        }
+        //3.跳过上一页已返回的offset个，再取count个
+        List<String> members = new ArrayList<>(count);
+        List<Double> scores = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!heap.isEmpty() && members.size() < count) {
+            int[] top = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = sources.get(top[0]).get(top[1]);
+            if (top[1] + 1 < sources.get(top[0]).size()) {
+                heap.add(new int[]{top[0], top[1] + 1});
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            members.add(tuple.getValue());
+            scores.add(scoreOf(tuple));
+        }
+        return of(members, scores, max, offset);
+    }
+
+    private static double scoreOf(ZSetOperations.TypedTuple<String> tuple) {
+        return tuple.getScore() == null ? 0 : tuple.getScore();
+    }
+
+    //根据本页数据计算下一页的max和offset
+    private static ZSetScroll of(List<String> members, List<Double> scores, double max, int offset) {
+        ZSetScroll scroll = new ZSetScroll();
+        scroll.setMembers(members);
+        scroll.setScores(scores);
+        if (members.isEmpty()) {
+            scroll.setMin(max);
+            scroll.setOffset(offset);
+            return scroll;
+        }
+        double min = 0;
+        int os = 0;
+        for (double score : scores) {
+            //统计末尾与最小分数相同的元素个数
+            if (os > 0 && score == min) {
+                os++;
+            } else {
+                min = score;
+                os = 1;
+            }
+        }
+        scroll.setMin(min);
+        //整页分数都等于max时，需要在上一页offset的基础上继续跳过
+        scroll.setOffset(min == max ? os + offset : os);
+        return scroll;
+    }
+}
@@ -0,0 +1,29 @@
+-- KEYS[1] 博文点赞的zset，KEYS[2] 点赞数的计数缓冲区，KEYS[3] 热门博文的zset，KEYS[4] 正在回写的计数缓冲区
+-- ARGV[1] 用户id，ARGV[2] 点赞时间戳，ARGV[3] 博文id
+-- ARGV[4] 目标状态：1点赞，0取消，空字符串表示切换
+-- ARGV[5] 博文发布时间换算的热度基数，ARGV[6] 数据库中的点赞数
+local liked = redis.call('zscore', KEYS[1], ARGV[1]) ~= false
+local target
+if ARGV[4] == '' then
+    target = not liked
+else
+    target = ARGV[4] == '1'
+end
+-- 状态没有变化，重复请求不重复计数
+if target == liked then
+    return liked and 1 or 0
+end
+local delta
+if target then
+    redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+    delta = redis.call('hincrby', KEYS[2], ARGV[3], 1)
+else
+    redis.call('zrem', KEYS[1], ARGV[1])
+    delta = redis.call('hincrby', KEYS[2], ARGV[3], -1)
+end
+-- 热度 = log10(点赞数) + 发布时间 / 45000，点赞数为数据库中的值加上未回写和正在回写的增量
+local draining = tonumber(redis.call('hget', KEYS[4], ARGV[3]) or '0')
+local likes = math.max(tonumber(ARGV[6]) + delta + draining, 1)
+-- 只更新仍在热门博文中的，已被裁剪掉的不重新加入
+redis.call('zadd', KEYS[3], 'xx', math.log10(likes) + tonumber(ARGV[5]), ARGV[3])
+return target and 1 or 0
@@ -0,0 +1,16 @@
+-- KEYS[1] 用户的token集合 login:tokens:{userId}
+-- ARGV[1] 会话hash的key前缀 login:token:，ARGV[2..] 要修改的字段和值
+-- 会话key由集合中的token决定，无法提前放入KEYS，只适用于单机或主从部署
+local tokens = {}
+for _, token in ipairs(redis.call('smembers', KEYS[1])) do
+    local key = ARGV[1] .. token
+    -- 已过期的会话不能用hmset重新创建（没有id和有效期），从集合中移除
+    if redis.call('exists', key) == 1 then
+        redis.call('hmset', key, unpack(ARGV, 2))
+        tokens[#tokens + 1] = token
+    else
+        redis.call('srem', KEYS[1], token)
+    end
+end
+-- 返回修改过的token，由调用方通知各实例删除本地缓存
+return tokens
@@ -0,0 +1,34 @@
+-- 按距离游标查询附近商铺，已返回的商铺在服务端过滤，只返回一页
+-- KEYS[1] 商铺类型的GEO
+-- ARGV[1] 经度，ARGV[2] 纬度，ARGV[3] 半径（米），ARGV[4] 每页数量
+-- ARGV[5] 上一页最后一个商铺的距离，第一页为-1，ARGV[6] 首次查询的条数
+-- ARGV[7..] 距离等于ARGV[5]且已经返回过的商铺id
+-- 返回：商铺id、距离交替排列
+local size = tonumber(ARGV[4])
+local after = tonumber(ARGV[5])
+local count = tonumber(ARGV[6])
+local seen = {}
+for i = 7, #ARGV do
+    seen[ARGV[i]] = true
+end
+while true do
+    local hits = redis.call('geosearch', KEYS[1], 'fromlonlat', ARGV[1], ARGV[2],
+            'byradius', ARGV[3], 'm', 'asc', 'count', count, 'withdist')
+    local page = {}
+    for _, hit in ipairs(hits) do
+        local distance = tonumber(hit[2])
+        if distance > after or (distance == after and not seen[hit[1]]) then
+            page[#page + 1] = hit[1]
+            page[#page + 1] = hit[2]
+            if #page == size * 2 then
+                return page
+            end
+        end
+    end
+    -- 半径内已经没有更多商铺
+    if #hits < count then
+        return page
+    end
+    -- 上一页之前新增了更近的商铺，查询条数不够，加倍重查
+    count = count * 2
+end
@@ -0,0 +1,20 @@
+-- KEYS[1] 商铺所在类型和商圈的hash，KEYS[2] 计数缓冲区
+-- ARGV[1] 商铺id，ARGV[2] 指标的榜单key前缀 shop:rank:{metric}:，ARGV[3] 增量
+-- 榜单key由hash中的位置决定，无法提前放入KEYS，只适用于单机或主从部署
+redis.call('hincrby', KEYS[2], ARGV[1], ARGV[3])
+local location = redis.call('hget', KEYS[1], ARGV[1])
+-- 位置未知时由调用方查询数据库后补齐
+if not location then
+    return 0
+end
+-- 位置格式为 typeId:area，area可能为空
+local i = string.find(location, ':', 1, true)
+local typeId = string.sub(location, 1, i - 1)
+local area = string.sub(location, i + 1)
+if typeId ~= '' then
+    redis.call('zincrby', ARGV[2] .. 'type:' .. typeId, ARGV[3], ARGV[1])
+end
+if area ~= '' then
+    redis.call('zincrby', ARGV[2] .. 'area:' .. area, ARGV[3], ARGV[1])
+end
+return 1
@@ -0,0 +1,161 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.SignDTO;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Sign;
+import com.hmdp.mapper.SignMapper;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.*;
+import java.util.function.ToIntFunction;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class SignServiceImplTest {
+
+    @Test
+    void isSignedMatchesSetBitOffset() {
+        //SETBIT key d-1 1 后，BITFIELD GET u31 0 的值中从高到低第d位为1
+        for (int day = 1; day <= 31; day++) {
+            int bits = 1 << (31 - day);
+            for (int d = 1; d <= 31; d++) {
+                assertEquals(d == day, SignServiceImpl.isSigned(bits, d), "day " + day + ", d " + d);
+            }
+        }
+        assertTrue(SignServiceImpl.isSigned(bits(1, 31), 1));
+        assertTrue(SignServiceImpl.isSigned(bits(1, 31), 31));
+        assertEquals(2, Integer.bitCount(bits(1, 31)));
+    }
+
+    @Test
+    void streakWithinMonth() {
+        Months months = new Months();
+        YearMonth march = YearMonth.of(2024, 3);
+        assertEquals(8, SignServiceImpl.streak(march, range(3, 10), 10, months));
+        //从未签到的一天开始为0
+        assertEquals(0, SignServiceImpl.streak(march, range(3, 10), 11, months));
+        assertEquals(3, SignServiceImpl.streak(march, range(3, 10) | bits(20, 21, 22), 22, months));
+        //没有数到1号，不查询上个月
+        assertTrue(months.requested.isEmpty());
+    }
+
+    @Test
+    void streakContinuesIntoLeapFebruary() {
+        Months months = new Months().put(2024, 2, range(27, 29));
+        assertEquals(5, SignServiceImpl.streak(YearMonth.of(2024, 3), range(1, 2), 2, months));
+        assertEquals(Collections.singletonList(YearMonth.of(2024, 2)), months.requested);
+
+        //闰年2月29日未签到时，2月28日的签到不连续
+        months = new Months().put(2024, 2, range(26, 28));
+        assertEquals(2, SignServiceImpl.streak(YearMonth.of(2024, 3), range(1, 2), 2, months));
+    }
+
+    @Test
+    void streakContinuesIntoCommonFebruary() {
+        //平年2月只有28天
+        Months months = new Months().put(2023, 2, range(26, 28));
+        assertEquals(5, SignServiceImpl.streak(YearMonth.of(2023, 3), range(1, 2), 2, months));
+    }
+
+    @Test
+    void streakFromFirstDayUnsignedStartsAtPreviousMonthEnd() {
+        //1月1日还没签到，从去年12月31日往前数，跨年
+        Months months = new Months()
+                .put(2023, 12, range(1, 31))
+                .put(2023, 11, range(29, 30));
+        assertEquals(33, SignServiceImpl.streak(YearMonth.of(2024, 1), 0, 0, months));
+        assertEquals(Arrays.asList(YearMonth.of(2023, 12), YearMonth.of(2023, 11)), months.requested);
+    }
+
+    @Test
+    void streakSpansSeveralFullMonths() {
+        Months months = new Months()
+                .put(2024, 2, range(1, 29))
+                .put(2024, 1, range(1, 31));
+        assertEquals(5 + 29 + 31, SignServiceImpl.streak(YearMonth.of(2024, 3), range(1, 5), 5, months));
+        //12月没有签到时停止，不再查询更早的月份
+        assertEquals(Arrays.asList(YearMonth.of(2024, 2), YearMonth.of(2024, 1), YearMonth.of(2023, 12)), months.requested);
+    }
+
+    @Test
+    void streakStopsWhenPreviousMonthEndsUnsigned() {
+        Months months = new Months().put(2024, 4, range(1, 29));
+        //4月有30天，30日未签到
+        assertEquals(3, SignServiceImpl.streak(YearMonth.of(2024, 5), range(1, 3), 3, months));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streakReadsArchiveWhenLastMonthAlreadyArchived() {
+        //keep-months为1：上个月已经在月初归档到tb_sign，redis中只有本月
+        LocalDate today = LocalDate.now();
+        YearMonth lastMonth = YearMonth.from(today).minusMonths(1);
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        doReturn(Arrays.asList(Collections.singletonList((long) range(1, today.getDayOfMonth())), Collections.emptyList()))
+                .when(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+        SignMapper signMapper = mock(SignMapper.class);
+        //上个月全勤，上上个月没有签到
+        when(signMapper.selectOne(any()))
+                .thenReturn(new Sign().setSignBits(range(1, lastMonth.lengthOfMonth())))
+                .thenReturn(null);
+        SignServiceImpl service = new SignServiceImpl();
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(service, "baseMapper", signMapper);
+        ReflectionTestUtils.setField(service, "keepMonths", 1);
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        UserHolder.saveUser(user);
+        try {
+            SignDTO stats = (SignDTO) service.signCount().getData();
+            assertTrue(stats.getSignedToday());
+            assertEquals(today.getDayOfMonth() + lastMonth.lengthOfMonth(), stats.getStreak());
+            verify(signMapper, times(2)).selectOne(any());
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    private static int bits(int... days) {
+        int bits = 0;
+        for (int day : days) {
+            bits |= 1 << (31 - day);
+        }
+        return bits;
+    }
+
+    private static int range(int from, int to) {
+        int bits = 0;
+        for (int day = from; day <= to; day++) {
+            bits |= bits(day);
+        }
+        return bits;
+    }
+
+    //按月份返回位图，并记录查询过的月份
+    private static class Months implements ToIntFunction<YearMonth> {
+        private final Map<YearMonth, Integer> bits = new HashMap<>();
+        private final List<YearMonth> requested = new ArrayList<>();
+
+        Months put(int year, int month, int value) {
+            bits.put(YearMonth.of(year, month), value);
+            return this;
+        }
+
+        @Override
+        public int applyAsInt(YearMonth month) {
+            requested.add(month);
+            return bits.getOrDefault(month, 0);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 基准测试的公共方法
+ * <p>
+ * 基准测试带有@Tag("benchmark")，默认的mvn test不执行，用 mvn test -Pbenchmark 执行。
+ * 结果输出到标准输出，断言只校验结果一致和数量级上的差距，具体耗时与机器有关
+ */
+final class BenchmarkSupport {
+    //与application.yaml中的数据库配置相同，连接不上时跳过对比SQL的部分
+    private static final String MYSQL_URL =
+            "jdbc:mysql://127.0.0.1:3306/hmdp?useSSL=false&allowPublicKeyRetrieval=true&serverTimezone=UTC&rewriteBatchedStatements=true";
+    private static final String MYSQL_USERNAME = "root";
+    private static final String MYSQL_PASSWORD = "1234";
+    //与application.yaml中的redis配置相同，连接不上时跳过对比redis的部分
+    private static final String REDIS_HOST = "127.0.0.1";
+    private static final int REDIS_PORT = 6379;
+    private static final String REDIS_PASSWORD = "123456";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * 连接本地mysql，连接不上时跳过当前测试
+     */
+    static Connection mysql() {
+        try {
+            return DriverManager.getConnection(MYSQL_URL, MYSQL_USERNAME, MYSQL_PASSWORD);
+        } catch (SQLException e) {
+            assumeTrue(false, "mysql不可用：" + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 连接本地redis，连接不上时跳过当前测试，用完后调用destroy
+     */
+    static LettuceConnectionFactory redis() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(REDIS_HOST, REDIS_PORT);
+        config.setPassword(REDIS_PASSWORD);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        try {
+            factory.getConnection().close();
+        } catch (RuntimeException e) {
+            factory.destroy();
+            assumeTrue(false, "redis不可用：" + e.getMessage());
+        }
+        return factory;
+    }
+
+    /**
+     * 先预热，再执行rounds次
+     * @return 平均每次的耗时，单位微秒
+     */
+    static double averageMicros(int warmup, int rounds, Task task) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            task.run(i);
+        }
+        long begin = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            task.run(i);
+        }
+        return (System.nanoTime() - begin) / 1000.0 / rounds;
+    }
+
+    static void report(String name, double micros) {
+        System.out.printf("%-40s avg(us) = %.2f%n", name, micros);
+    }
+
+    static String environment() {
+        return "java " + System.getProperty("java.version") + ", " + System.getProperty("os.name")
+                + " " + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " cpus";
+    }
+
+    /**
+     * 第i次执行的任务
+     */
+    @FunctionalInterface
+    interface Task {
+        void run(int i) throws Exception;
+    }
+}
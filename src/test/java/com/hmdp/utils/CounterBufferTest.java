@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class CounterBufferTest {
+    private static final String KEY = "test:counter";
+    private static final String DRAINING_KEY = KEY + ":draining";
+
+    private StringRedisTemplate stringRedisTemplate;
+    private HashOperations<String, Object, Object> hashOperations;
+    private CounterBuffer buffer;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        doReturn(hashOperations).when(stringRedisTemplate).opsForHash();
+        buffer = new CounterBuffer(stringRedisTemplate, KEY);
+    }
+
+    @Test
+    void partitionKeepsEveryEntryOnce() {
+        Map<Long, Long> deltas = new HashMap<>();
+        for (long id = 1; id <= 2500; id++) {
+            deltas.put(id, id % 7 - 3);
+        }
+        List<Map<Long, Long>> batches = CounterBuffer.partition(deltas, 1000);
+        assertEquals(3, batches.size());
+        assertEquals(1000, batches.get(0).size());
+        assertEquals(1000, batches.get(1).size());
+        assertEquals(500, batches.get(2).size());
+        Map<Long, Long> merged = new HashMap<>();
+        for (Map<Long, Long> batch : batches) {
+            batch.forEach((id, delta) -> assertNull(merged.put(id, delta), "同一个id只能出现在一批中"));
+        }
+        assertEquals(deltas, merged);
+    }
+
+    @Test
+    void partitionExactMultipleAndEmpty() {
+        Map<Long, Long> deltas = new HashMap<>();
+        for (long id = 1; id <= 6; id++) {
+            deltas.put(id, 1L);
+        }
+        List<Map<Long, Long>> batches = CounterBuffer.partition(deltas, 3);
+        assertEquals(2, batches.size());
+        batches.forEach(batch -> assertEquals(3, batch.size()));
+        assertTrue(CounterBuffer.partition(Collections.emptyMap(), 3).isEmpty());
+        assertEquals(1, CounterBuffer.partition(deltas, 100).size());
+    }
+
+    @Test
+    void drainRenamesAndSkipsZeroDeltas() {
+        when(stringRedisTemplate.hasKey(DRAINING_KEY)).thenReturn(false);
+        when(stringRedisTemplate.hasKey(KEY)).thenReturn(true);
+        Map<Object, Object> entries = new HashMap<>();
+        entries.put("1", "5");
+        entries.put("2", "0");
+        entries.put("3", "-2");
+        when(hashOperations.entries(DRAINING_KEY)).thenReturn(entries);
+
+        Map<Long, Long> expected = new HashMap<>();
+        expected.put(1L, 5L);
+        expected.put(3L, -2L);
+        assertEquals(expected, buffer.drain());
+        verify(stringRedisTemplate).rename(KEY, DRAINING_KEY);
+    }
+
+    @Test
+    void drainReturnsUnackedBatchFirst() {
+        when(stringRedisTemplate.hasKey(DRAINING_KEY)).thenReturn(true);
+        when(hashOperations.entries(DRAINING_KEY)).thenReturn(Collections.singletonMap("7", "1"));
+
+        assertEquals(Collections.singletonMap(7L, 1L), buffer.drain());
+        //上次未ack的数据还在，不能RENAME覆盖
+        verify(stringRedisTemplate, never()).rename(anyString(), anyString());
+    }
+
+    @Test
+    void drainWithoutDataDoesNotRename() {
+        when(stringRedisTemplate.hasKey(anyString())).thenReturn(false);
+        assertTrue(buffer.drain().isEmpty());
+        verify(stringRedisTemplate, never()).rename(anyString(), anyString());
+    }
+
+    @Test
+    void flushAcksOnlyAfterWriterSucceeds() {
+        when(stringRedisTemplate.hasKey(DRAINING_KEY)).thenReturn(true);
+        when(hashOperations.entries(DRAINING_KEY)).thenReturn(Collections.singletonMap("1", "3"));
+
+        assertThrows(IllegalStateException.class, () -> buffer.flush(deltas -> {
+            throw new IllegalStateException("db down");
+        }));
+        verify(stringRedisTemplate, never()).delete(DRAINING_KEY);
+
+        List<Map<Long, Long>> written = new ArrayList<>();
+        assertEquals(Collections.singletonMap(1L, 3L), buffer.flush(written::add));
+        assertEquals(Collections.singletonList(Collections.singletonMap(1L, 3L)), written);
+        verify(stringRedisTemplate).delete(DRAINING_KEY);
+    }
+}
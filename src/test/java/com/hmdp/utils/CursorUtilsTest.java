@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CursorUtilsTest {
+
+    @Test
+    void encodeDecodeRoundTrip() {
+        long[] values = {1700000000000L, 42L, -1L, Long.MIN_VALUE, Long.MAX_VALUE};
+        String cursor = CursorUtils.encode(values);
+        assertArrayEquals(values, CursorUtils.decode(cursor, values.length));
+        //url安全，可以直接放在查询参数中
+        assertFalse(cursor.contains("+") || cursor.contains("/") || cursor.contains("="));
+    }
+
+    @Test
+    void doubleBitsRoundTrip() {
+        double distance = 1234.5678;
+        long[] values = CursorUtils.decode(CursorUtils.encode(Double.doubleToLongBits(distance), 3), 2);
+        assertEquals(distance, Double.longBitsToDouble(values[0]));
+        assertEquals(3, values[1]);
+    }
+
+    @Test
+    void blankCursorIsFirstPage() {
+        assertNull(CursorUtils.decode(null, 2));
+        assertNull(CursorUtils.decode("", 2));
+        assertNull(CursorUtils.decode("  ", 2));
+        assertNull(CursorUtils.decodeAtLeast(null, 2));
+    }
+
+    @Test
+    void rejectsWrongLength() {
+        String cursor = CursorUtils.encode(1, 2);
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(cursor, 1));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(cursor, 3));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decodeAtLeast(cursor, 3));
+    }
+
+    @Test
+    void decodeAtLeastAcceptsExtraValues() {
+        assertArrayEquals(new long[]{1, 2}, CursorUtils.decodeAtLeast(CursorUtils.encode(1, 2), 2));
+        assertArrayEquals(new long[]{1, 2, 7, 9}, CursorUtils.decodeAtLeast(CursorUtils.encode(1, 2, 7, 9), 2));
+    }
+
+    @Test
+    void rejectsMalformedCursor() {
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode("not-a-cursor!", 1));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(Base64.encodeUrlSafe("v1:abc"), 1));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(Base64.encodeUrlSafe("v2:1"), 1));
+        assertThrows(IllegalArgumentException.class, () -> CursorUtils.decode(Base64.encodeUrlSafe("1:2"), 1));
+    }
+
+    @Test
+    void trimPage() {
+        List<Integer> records = new ArrayList<>(Arrays.asList(1, 2, 3, 4));
+        assertTrue(CursorUtils.trimPage(records, 3));
+        assertEquals(Arrays.asList(1, 2, 3), records);
+
+        assertFalse(CursorUtils.trimPage(records, 3));
+        assertEquals(Arrays.asList(1, 2, 3), records);
+
+        List<Integer> empty = new ArrayList<>();
+        assertFalse(CursorUtils.trimPage(empty, 3));
+    }
+}
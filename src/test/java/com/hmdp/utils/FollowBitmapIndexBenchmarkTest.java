@@ -0,0 +1,175 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.hmdp.utils.BenchmarkSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 关注位图与redis SET保存关注关系的内存和耗时对比
+ */
+@Tag("benchmark")
+class FollowBitmapIndexBenchmarkTest {
+    //一个约100万粉丝的大V（随机id去重后约95万），两个各关注约5000人的普通用户，用户id在1000万以内随机分布
+    private static final long BIG_V = 10000001L, USER_A = 10000002L, USER_B = 10000003L;
+    private static final int BIG_V_FOLLOWERS = 1000000, FOLLOWING = 5000, ID_RANGE = 10000000;
+    //推送粉丝时每批的数量
+    private static final int BATCH = 1000;
+
+    private FollowBitmapIndex index;
+    private long[] fans;
+    private long[] followingA, followingB;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(1);
+        List<Follow> follows = new ArrayList<>(BIG_V_FOLLOWERS + 2 * FOLLOWING);
+        fans = random.longs(BIG_V_FOLLOWERS, 1, ID_RANGE).distinct().toArray();
+        for (long fan : fans) {
+            follows.add(new Follow().setId(follows.size() + 1L).setUserId(fan).setFollowUserId(BIG_V));
+        }
+        //两人有一半关注的人落在同一个区间，制造交集
+        followingA = random.longs(FOLLOWING, 1, 20000).distinct().toArray();
+        followingB = random.longs(FOLLOWING, 10000, 30000).distinct().toArray();
+        for (long followUser : followingA) {
+            follows.add(new Follow().setId(follows.size() + 1L).setUserId(USER_A).setFollowUserId(followUser));
+        }
+        for (long followUser : followingB) {
+            follows.add(new Follow().setId(follows.size() + 1L).setUserId(USER_B).setFollowUserId(followUser));
+        }
+        //按id分页读取tb_follow
+        FollowMapper followMapper = mock(FollowMapper.class);
+        int[] offset = {0};
+        when(followMapper.selectList(any())).thenAnswer(invocation -> {
+            int from = offset[0], to = Math.min(from + 10000, follows.size());
+            offset[0] = to;
+            return new ArrayList<>(follows.subList(from, to));
+        });
+        index = new FollowBitmapIndex();
+        ReflectionTestUtils.setField(index, "followMapper", followMapper);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", mock(StringRedisTemplate.class));
+        ReflectionTestUtils.setField(index, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(index, "engine", "bitmap");
+        index.init();
+    }
+
+    @Test
+    void bitmapMemoryAndLatency() throws Exception {
+        assertEquals(fans.length, index.followerCount(BIG_V));
+        assertEquals(expectedCommon(), index.common(USER_A, USER_B));
+        assertEquals(Arrays.stream(fans).sum(), sumFollowers());
+
+        long bytes = followersOf(BIG_V).getLongSizeInBytes();
+        double common = averageMicros(100, 1000, i -> index.common(USER_A, USER_B));
+        double fanOut = averageMicros(5, 20, i -> sumFollowers());
+        System.out.println(environment() + ", " + fans.length + " followers in 1.." + ID_RANGE);
+        System.out.printf("%-40s bytes = %d, per edge = %.2f%n", "big V follower bitmap", bytes, (double) bytes / fans.length);
+        report("bitmap common following", common);
+        report("bitmap fan-out, batch " + BATCH, fanOut);
+        //粉丝占id范围的10%，位图容器每条关系约1字节，redis SET中每个成员几十字节
+        assertTrue(bytes < fans.length * 2L, "bytes per edge " + (double) bytes / fans.length);
+    }
+
+    @Test
+    void bitmapVsRedisSet() throws Exception {
+        LettuceConnectionFactory factory = redis();
+        StringRedisTemplate redis = new StringRedisTemplate(factory);
+        String fansKey = "test:followers:bigv", aKey = "test:follows:a", bKey = "test:follows:b";
+        try {
+            redis.delete(Arrays.asList(fansKey, aKey, bKey));
+            for (int i = 0; i < fans.length; i += 10000) {
+                redis.opsForSet().add(fansKey, strings(Arrays.copyOfRange(fans, i, Math.min(i + 10000, fans.length))));
+            }
+            redis.opsForSet().add(aKey, strings(followingA));
+            redis.opsForSet().add(bKey, strings(followingB));
+
+            //内存：redis MEMORY USAGE vs 位图大小
+            long redisBytes = redis.execute((RedisCallback<Long>) connection -> memoryUsage(connection, fansKey));
+            long bitmapBytes = followersOf(BIG_V).getLongSizeInBytes();
+            //共同关注：SINTER vs 位图AND
+            assertEquals(expectedCommon().size(), redis.opsForSet().intersect(aKey, bKey).size());
+            double sinter = averageMicros(10, 100, i -> redis.opsForSet().intersect(aKey, bKey));
+            double and = averageMicros(10, 100, i -> index.common(USER_A, USER_B));
+            //推送粉丝：SSCAN取出字符串再解析 vs 位图按批取出
+            assertEquals(sumFollowers(), sscanSum(redis, fansKey));
+            double sscan = averageMicros(1, 3, i -> sscanSum(redis, fansKey));
+            double fanOut = averageMicros(1, 3, i -> sumFollowers());
+
+            System.out.println(environment() + ", " + fans.length + " followers in 1.." + ID_RANGE);
+            System.out.printf("%-40s bytes = %d, per edge = %.2f%n", "redis set", redisBytes, (double) redisBytes / fans.length);
+            System.out.printf("%-40s bytes = %d, per edge = %.2f%n", "bitmap", bitmapBytes, (double) bitmapBytes / fans.length);
+            report("redis sinter", sinter);
+            report("bitmap and", and);
+            report("redis sscan all", sscan);
+            report("bitmap fan-out all", fanOut);
+            assertTrue(bitmapBytes * 10 < redisBytes, "bitmap " + bitmapBytes + " bytes, redis " + redisBytes + " bytes");
+            assertTrue(and < sinter, "bitmap and " + and + "us, sinter " + sinter + "us");
+            assertTrue(fanOut * 10 < sscan, "bitmap fan-out " + fanOut + "us, sscan " + sscan + "us");
+        } finally {
+            redis.delete(Arrays.asList(fansKey, aKey, bKey));
+            factory.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private RoaringBitmap followersOf(long userId) {
+        Map<Integer, RoaringBitmap> followers = (Map<Integer, RoaringBitmap>) ReflectionTestUtils.getField(index, "followers");
+        return followers.get((int) userId);
+    }
+
+    //按批取出全部粉丝，求和防止被优化掉，也用于校验结果
+    private long sumFollowers() {
+        long[] sum = {0};
+        index.forEachFollowers(BIG_V, BATCH, batch -> {
+            for (long id : batch) {
+                sum[0] += id;
+            }
+        });
+        return sum[0];
+    }
+
+    private static long sscanSum(StringRedisTemplate redis, String key) {
+        long sum = 0;
+        try (Cursor<String> cursor = redis.opsForSet().scan(key, ScanOptions.scanOptions().count(BATCH).build())) {
+            while (cursor.hasNext()) {
+                sum += Long.parseLong(cursor.next());
+            }
+        }
+        return sum;
+    }
+
+    private Set<Long> expectedCommon() {
+        Set<Long> common = new HashSet<>();
+        Arrays.stream(followingA).forEach(common::add);
+        Set<Long> b = new HashSet<>();
+        Arrays.stream(followingB).forEach(b::add);
+        common.retainAll(b);
+        return common;
+    }
+
+    private static String[] strings(long[] ids) {
+        return Arrays.stream(ids).mapToObj(String::valueOf).toArray(String[]::new);
+    }
+
+    private static Long memoryUsage(RedisConnection connection, String key) {
+        return (Long) connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8));
+    }
+}
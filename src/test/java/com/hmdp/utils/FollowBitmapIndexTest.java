@@ -0,0 +1,188 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.FOLLOW_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class FollowBitmapIndexTest {
+    private FollowMapper followMapper;
+    private StringRedisTemplate stringRedisTemplate;
+    private RedisMessageListenerContainer container;
+    private FollowBitmapIndex index;
+    //tb_follow的内容
+    private List<Follow> follows;
+
+    @BeforeEach
+    void setUp() {
+        followMapper = mock(FollowMapper.class);
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        container = mock(RedisMessageListenerContainer.class);
+        follows = new ArrayList<>();
+        when(followMapper.selectList(any())).thenAnswer(invocation -> new ArrayList<>(follows));
+        index = new FollowBitmapIndex();
+        ReflectionTestUtils.setField(index, "followMapper", followMapper);
+        ReflectionTestUtils.setField(index, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(index, "redisMessageListenerContainer", container);
+        ReflectionTestUtils.setField(index, "engine", "bitmap");
+        //1、2、3都关注了100，1和2都关注了200、300
+        follow(1, 100);
+        follow(2, 100);
+        follow(3, 100);
+        follow(1, 200);
+        follow(2, 200);
+        follow(1, 300);
+        follow(2, 300);
+        follow(3, 400);
+    }
+
+    @Test
+    void loadBuildsFollowersAndFollowing() {
+        index.init();
+        assertTrue(index.isReady());
+        assertEquals(3, index.followerCount(100L));
+        assertEquals(2, index.followerCount(200L));
+        assertEquals(0, index.followerCount(999L));
+        assertEquals(set(100L, 200L, 300L), index.common(1L, 2L));
+        assertEquals(set(100L), index.common(1L, 3L));
+        assertTrue(index.common(1L, 999L).isEmpty());
+        assertEquals(3, index.followersOfAny(Arrays.asList(100L, 200L, 400L)).getCardinality());
+        assertTrue(index.followersOfAny(Collections.singletonList(999L)).isEmpty());
+    }
+
+    @Test
+    void forEachFollowersReturnsAllInBatches() {
+        for (int user = 1000; user < 1250; user++) {
+            follow(user, 500);
+        }
+        index.init();
+        List<Long> all = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        index.forEachFollowers(500L, 100, batch -> {
+            sizes.add(batch.length);
+            for (long id : batch) {
+                all.add(id);
+            }
+        });
+        assertEquals(Arrays.asList(100, 100, 50), sizes);
+        assertEquals(250, new HashSet<>(all).size());
+        assertEquals(1000L, all.get(0));
+        assertEquals(1249L, all.get(all.size() - 1));
+    }
+
+    @Test
+    void updatesApplyInBatchesAndInOrder() {
+        index.init();
+        index.update(true, 4L, 100L);
+        index.update(false, 1L, 200L);
+        //同一条关系先关注再取关，应用后不存在
+        index.update(true, 5L, 600L);
+        index.update(false, 5L, 600L);
+        //取关不存在的关系不产生变化
+        index.update(false, 9L, 100L);
+        //应用之前读到的仍是旧快照
+        assertEquals(3, index.followerCount(100L));
+
+        index.applyPending();
+        assertEquals(4, index.followerCount(100L));
+        assertEquals(1, index.followerCount(200L));
+        assertEquals(0, index.followerCount(600L));
+        assertEquals(set(100L, 300L), index.common(1L, 2L));
+        verify(stringRedisTemplate, times(5)).convertAndSend(eq(FOLLOW_CHANNEL), anyString());
+    }
+
+    @Test
+    void applyDoesNotMutatePreviousSnapshot() {
+        index.init();
+        RoaringBitmap before = index.followersOfAny(Collections.singletonList(100L));
+        index.update(true, 7L, 100L);
+        index.applyPending();
+        assertFalse(before.contains(7));
+        assertTrue(index.followersOfAny(Collections.singletonList(100L)).contains(7));
+    }
+
+    @Test
+    void listenerSkipsOwnMessagesAndAppliesOthers() {
+        index.init();
+        ArgumentCaptor<MessageListener> listener = ArgumentCaptor.forClass(MessageListener.class);
+        verify(container).addMessageListener(listener.capture(), any(Topic.class));
+        ArgumentCaptor<String> published = ArgumentCaptor.forClass(String.class);
+        index.update(true, 8L, 100L);
+        verify(stringRedisTemplate).convertAndSend(eq(FOLLOW_CHANNEL), published.capture());
+        index.applyPending();
+        assertEquals(4, index.followerCount(100L));
+
+        //自己发布的取关消息被跳过，否则本实例会重复应用
+        String own = published.getValue().replace(":1:", ":0:");
+        listener.getValue().onMessage(message(own), null);
+        //其他实例的消息入队，格式错误的消息忽略
+        listener.getValue().onMessage(message("other:1:9:100"), null);
+        listener.getValue().onMessage(message("broken"), null);
+        index.applyPending();
+        assertEquals(5, index.followerCount(100L));
+    }
+
+    @Test
+    void reloadReconcilesWithDatabase() {
+        index.init();
+        //发布订阅丢失的变更，只在tb_follow中
+        follow(6L, 100L);
+        follows.removeIf(f -> f.getUserId() == 1L && f.getFollowUserId() == 200L);
+        assertEquals(3, index.followerCount(100L));
+
+        index.reload();
+        assertTrue(index.isReady());
+        assertEquals(4, index.followerCount(100L));
+        assertEquals(1, index.followerCount(200L));
+    }
+
+    @Test
+    void idsBeyond32BitsDisableIndex() {
+        follow(1L << 33, 100L);
+        index.init();
+        assertFalse(index.isReady());
+        //不再接收变更
+        index.update(true, 1L, 999L);
+        assertFalse(index.isReady());
+        index.applyPending();
+        assertEquals(0, index.followerCount(999L));
+    }
+
+    @Test
+    void disabledEngineDoesNothing() {
+        ReflectionTestUtils.setField(index, "engine", "redis");
+        index.init();
+        index.update(true, 1L, 100L);
+        index.reload();
+        assertFalse(index.isReady());
+        verifyNoInteractions(followMapper, stringRedisTemplate, container);
+    }
+
+    private void follow(long user, long followUser) {
+        follows.add(new Follow().setId((long) follows.size() + 1).setUserId(user).setFollowUserId(followUser));
+    }
+
+    private static DefaultMessage message(String body) {
+        return new DefaultMessage(FOLLOW_CHANNEL.getBytes(StandardCharsets.UTF_8), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<Long> set(Long... ids) {
+        return new HashSet<>(Arrays.asList(ids));
+    }
+}
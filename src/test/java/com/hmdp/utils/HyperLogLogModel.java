@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * redis HyperLogLog的Java移植，只用于在没有redis的环境下测量误差：
+ * MurmurHash64A（种子0xadc83b19）、16384个6位寄存器，PFMERGE取寄存器最大值，
+ * PFCOUNT使用redis hyperloglog.c中的Ertl估计算法（hllCount）
+ */
+class HyperLogLogModel {
+    private static final int P = 14;
+    private static final int REGISTERS = 1 << P;
+    private static final int Q = 64 - P;
+    private static final double ALPHA_INF = 0.721347520444481703680;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * PFADD
+     */
+    void add(String element) {
+        byte[] data = element.getBytes(StandardCharsets.UTF_8);
+        long hash = murmurHash64A(data, 0xadc83b19L);
+        int index = (int) (hash & (REGISTERS - 1));
+        //剩余的Q位中从低位开始第一个1的位置，全为0时为Q+1
+        hash >>>= P;
+        hash |= 1L << Q;
+        int count = Long.numberOfTrailingZeros(hash) + 1;
+        if (count > registers[index]) {
+            registers[index] = (byte) count;
+        }
+    }
+
+    /**
+     * PFMERGE
+     */
+    void merge(HyperLogLogModel other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * PFCOUNT
+     */
+    long count() {
+        int[] histogram = new int[64];
+        for (byte register : registers) {
+            histogram[register]++;
+        }
+        double m = REGISTERS;
+        double z = m * tau((m - histogram[Q + 1]) / m);
+        for (int j = Q; j >= 1; j--) {
+            z += histogram[j];
+            z *= 0.5;
+        }
+        z += m * sigma(histogram[0] / m);
+        return Math.round(ALPHA_INF * m * m / z);
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double zPrime, y = 1, z = x;
+        do {
+            x *= x;
+            zPrime = z;
+            z += x * y;
+            y += y;
+        } while (zPrime != z);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) {
+            return 0;
+        }
+        double zPrime, y = 1, z = 1 - x;
+        do {
+            x = Math.sqrt(x);
+            zPrime = z;
+            y *= 0.5;
+            z -= Math.pow(1 - x, 2) * y;
+        } while (zPrime != z);
+        return z / 3;
+    }
+
+    //按小端序读取8字节块，与redis在x86上的结果相同
+    private static long murmurHash64A(byte[] data, long seed) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+        int len = data.length;
+        long h = seed ^ (len * m);
+        int blocks = len / 8;
+        for (int i = 0; i < blocks; i++) {
+            long k = 0;
+            for (int b = 7; b >= 0; b--) {
+                k = (k << 8) | (data[i * 8 + b] & 0xFF);
+            }
+            k *= m;
+            k ^= k >>> r;
+            k *= m;
+            h ^= k;
+            h *= m;
+        }
+        int tail = blocks * 8;
+        switch (len & 7) {
+            case 7: h ^= (long) (data[tail + 6] & 0xFF) << 48;
+            case 6: h ^= (long) (data[tail + 5] & 0xFF) << 40;
+            case 5: h ^= (long) (data[tail + 4] & 0xFF) << 32;
+            case 4: h ^= (long) (data[tail + 3] & 0xFF) << 24;
+            case 3: h ^= (long) (data[tail + 2] & 0xFF) << 16;
+            case 2: h ^= (long) (data[tail + 1] & 0xFF) << 8;
+            case 1:
+                h ^= data[tail] & 0xFF;
+                h *= m;
+            default:
+        }
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+        return h;
+    }
+}
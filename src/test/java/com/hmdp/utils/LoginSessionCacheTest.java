@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LoginSessionCacheTest {
+    private LoginSessionCache loginSessionCache;
+    private StringRedisTemplate stringRedisTemplate;
+    //redis中的会话
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        //只模拟HGETALL，续期的命令返回null
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            StringRedisConnection conn = mock(StringRedisConnection.class);
+            List<Object> results = new ArrayList<>();
+            when(conn.hGetAll(anyString())).thenAnswer(i -> {
+                results.add(hashes.getOrDefault(i.<String>getArgument(0), Collections.emptyMap()));
+                return null;
+            });
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(conn);
+            return results;
+        });
+        loginSessionCache = new LoginSessionCache();
+        ReflectionTestUtils.setField(loginSessionCache, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(loginSessionCache, "redisMessageListenerContainer", mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(loginSessionCache, "cacheTtl", 60000L);
+        ReflectionTestUtils.setField(loginSessionCache, "cacheSize", 100);
+        ReflectionTestUtils.setField(loginSessionCache, "refreshInterval", 60000L);
+        loginSessionCache.init();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void updateEvictsLocalCopiesOfUpdatedSessions() {
+        session("t1", "old");
+        session("t2", "old");
+        assertEquals("old", loginSessionCache.get("t1").getNickName());
+        assertEquals("old", loginSessionCache.get("t2").getNickName());
+        //脚本只修改了t1，t2已过期
+        when(stringRedisTemplate.execute(any(RedisScript.class), eq(Collections.singletonList(LOGIN_USER_TOKENS_KEY + 1)),
+                eq(LOGIN_USER_KEY), eq("nickName"), eq("new"))).thenAnswer(invocation -> {
+            hashes.get(LOGIN_USER_KEY + "t1").put("nickName", "new");
+            return Collections.singletonList("t1");
+        });
+
+        loginSessionCache.update(1L, Collections.singletonMap("nickName", "new"));
+
+        verify(stringRedisTemplate).convertAndSend(LOGIN_LOGOUT_CHANNEL, "t1");
+        verify(stringRedisTemplate, never()).convertAndSend(LOGIN_LOGOUT_CHANNEL, "t2");
+        //本地缓存已删除，重新查询redis
+        assertEquals("new", loginSessionCache.get("t1").getNickName());
+    }
+
+    @Test
+    void updateWithoutFieldsDoesNothing() {
+        loginSessionCache.update(1L, Collections.emptyMap());
+        verifyNoInteractions(stringRedisTemplate);
+    }
+
+    @Test
+    void tokenSetRenewedWithSession() {
+        session("t1", "old");
+        loginSessionCache.get("t1");
+        verify(stringRedisTemplate).expire(LOGIN_USER_TOKENS_KEY + 1, LOGIN_USER_TTL, TimeUnit.SECONDS);
+    }
+
+    private void session(String token, String nickName) {
+        Map<String, String> hash = new HashMap<>();
+        hash.put("id", "1");
+        hash.put("nickName", nickName);
+        hashes.put(LOGIN_USER_KEY + token, hash);
+    }
+}
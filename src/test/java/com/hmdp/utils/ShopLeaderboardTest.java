@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopRankDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class ShopLeaderboardTest {
+    private StringRedisTemplate stringRedisTemplate;
+    private HashOperations<String, Object, Object> hashOperations;
+    private ZSetOperations<String, String> zSetOperations;
+    private ShopMapper shopMapper;
+    private ShopLeaderboard leaderboard;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        zSetOperations = mock(ZSetOperations.class);
+        shopMapper = mock(ShopMapper.class);
+        doReturn(hashOperations).when(stringRedisTemplate).opsForHash();
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(stringRedisTemplate.hasKey(anyString())).thenReturn(true);
+        when(shopMapper.selectList(any())).thenReturn(Collections.emptyList());
+        leaderboard = new ShopLeaderboard();
+        ReflectionTestUtils.setField(leaderboard, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(leaderboard, "shopMapper", shopMapper);
+        leaderboard.init();
+    }
+
+    @Test
+    void locationRoundTrip() {
+        Shop shop = new Shop().setId(1L).setTypeId(3L).setArea("运河上街");
+        Shop decoded = ShopLeaderboard.decodeLocation(1L, ShopLeaderboard.encodeLocation(shop));
+        assertEquals(3L, decoded.getTypeId());
+        assertEquals("运河上街", decoded.getArea());
+
+        decoded = ShopLeaderboard.decodeLocation(2L, ShopLeaderboard.encodeLocation(new Shop().setId(2L).setTypeId(3L)));
+        assertEquals(3L, decoded.getTypeId());
+        assertNull(decoded.getArea());
+        //商圈中的冒号不影响解析
+        decoded = ShopLeaderboard.decodeLocation(3L, ShopLeaderboard.encodeLocation(new Shop().setId(3L).setArea("a:b")));
+        assertNull(decoded.getTypeId());
+        assertEquals("a:b", decoded.getArea());
+    }
+
+    @Test
+    void putMovesBoardsUsingSharedLocation() {
+        //本实例没有该商铺的任何状态，位置由其他实例写入redis
+        when(hashOperations.get(SHOP_RANK_LOCATION_KEY, "7")).thenReturn("1:拱墅区");
+        when(zSetOperations.score(SHOP_RANK_KEY + "sold:type:1", "7")).thenReturn(120.0);
+        when(zSetOperations.score(SHOP_RANK_KEY + "comments:type:1", "7")).thenReturn(8.0);
+
+        leaderboard.put(new Shop().setId(7L).setTypeId(2L).setArea("西湖区").setSold(100).setComments(5).setScore(45));
+
+        InOrder order = inOrder(hashOperations, zSetOperations);
+        //先写入新位置，再迁移榜单
+        order.verify(hashOperations).put(SHOP_RANK_LOCATION_KEY, "7", "2:西湖区");
+        order.verify(zSetOperations).remove(SHOP_RANK_KEY + "sold:type:1", "7");
+        verify(zSetOperations).remove(SHOP_RANK_KEY + "sold:area:拱墅区", "7");
+        //迁移时保留榜单中包含未回写增量的计数
+        verify(zSetOperations).add(SHOP_RANK_KEY + "sold:type:2", "7", 120.0);
+        verify(zSetOperations).add(SHOP_RANK_KEY + "sold:area:西湖区", "7", 120.0);
+        verify(zSetOperations).add(SHOP_RANK_KEY + "comments:type:2", "7", 8.0);
+        verify(zSetOperations).add(SHOP_RANK_KEY + "score:type:2", "7", 45.0);
+    }
+
+    @Test
+    void putWithoutMoveKeepsCounters() {
+        when(hashOperations.get(SHOP_RANK_LOCATION_KEY, "7")).thenReturn("2:西湖区");
+        leaderboard.put(new Shop().setId(7L).setTypeId(2L).setArea("西湖区").setSold(100).setComments(5).setScore(48));
+
+        verify(zSetOperations, never()).remove(anyString(), any());
+        verify(zSetOperations, never()).add(eq(SHOP_RANK_KEY + "sold:type:2"), anyString(), anyDouble());
+        verify(zSetOperations).add(SHOP_RANK_KEY + "score:type:2", "7", 48.0);
+        verify(zSetOperations).add(SHOP_RANK_KEY + "score:area:西湖区", "7", 48.0);
+    }
+
+    @Test
+    void rankOfReadsSharedLocation() {
+        when(hashOperations.get(SHOP_RANK_LOCATION_KEY, "7")).thenReturn("2:");
+        doReturn(Arrays.asList(0L, 120.0)).when(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+        ShopRankDTO rank = leaderboard.rankOf(7L, ShopLeaderboard.SOLD, false);
+        assertEquals(1L, rank.getRank());
+        assertEquals(120.0, rank.getScore());
+        //没有商圈时不查商圈榜单，位置未知时不查榜单
+        assertNull(leaderboard.rankOf(7L, ShopLeaderboard.SOLD, true));
+        assertNull(leaderboard.rankOf(8L, ShopLeaderboard.SOLD, false));
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void incrFallsBackToDatabaseWhenLocationMissing() {
+        doReturn(0L).when(stringRedisTemplate).execute(any(RedisScript.class), anyList(), any(), any(), any());
+        when(shopMapper.selectOne(any())).thenReturn(new Shop().setId(7L).setTypeId(2L).setArea("西湖区"));
+        when(hashOperations.get(SHOP_RANK_LOCATION_KEY, "7")).thenReturn("2:西湖区");
+
+        leaderboard.incr(7L, ShopLeaderboard.SOLD, 1);
+        verify(hashOperations).putIfAbsent(SHOP_RANK_LOCATION_KEY, "7", "2:西湖区");
+        verify(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void incrUsesScriptWhenLocationKnown() {
+        doReturn(1L).when(stringRedisTemplate).execute(any(RedisScript.class), anyList(), any(), any(), any());
+        leaderboard.incr(7L, ShopLeaderboard.SOLD, 1);
+
+        verify(stringRedisTemplate).execute(any(RedisScript.class),
+                eq(Arrays.asList(SHOP_RANK_LOCATION_KEY, SHOP_COUNTER_KEY + "sold")),
+                eq("7"), eq(SHOP_RANK_KEY + "sold:"), eq("1"));
+        verify(shopMapper, never()).selectOne(any());
+        verify(stringRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+}
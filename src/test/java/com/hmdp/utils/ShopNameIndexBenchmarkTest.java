@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+
+import static com.hmdp.utils.BenchmarkSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * n-gram倒排索引与 name LIKE '%kw%' 的商铺名称搜索对比
+ */
+@Tag("benchmark")
+class ShopNameIndexBenchmarkTest {
+    private static final int SHOPS = 100000;
+    //仿照hmdp.sql中的名称：品牌 + 品类 + (商圈 + 店)
+    private static final String[] BRANDS = {"海底捞", "蔡馬洪涛", "新白鹿", "幸福里", "炉鱼", "星聚会", "开乐迪", "外婆家",
+            "绿茶", "老娘舅", "西贝", "太二", "和府", "喜茶", "奈雪", "瑞幸", "肯德基", "麦当劳", "必胜客", "九毛九"};
+    private static final String[] CATEGORIES = {"火锅", "烤肉", "茶餐厅", "涮羊肉", "KTV", "面馆", "咖啡", "酸菜鱼",
+            "小龙虾", "烧烤", "甜品", "奶茶", "汉堡", "披萨", "粥铺", "私房菜"};
+    private static final String[] AREAS = {"运河上街", "水晶城", "拱墅万达", "远洋乐堤港", "西湖银泰", "滨江龙湖", "萧山宝龙",
+            "武林广场", "湖滨", "城西银泰", "下沙", "大悦城", "来福士", "万象城", "嘉里中心", "龙湖天街"};
+
+    private Map<Long, String> names;
+    private ShopNameIndex index;
+    private String[] queries;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(1);
+        names = new LinkedHashMap<>(SHOPS * 2);
+        List<Shop> shops = new ArrayList<>(SHOPS);
+        for (long id = 1; id <= SHOPS; id++) {
+            String name = pick(random, BRANDS) + pick(random, CATEGORIES)
+                    + "(" + pick(random, AREAS) + (random.nextInt(20) + 1) + "号店)";
+            names.put(id, name);
+            shops.add(new Shop().setId(id).setName(name));
+        }
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(shops);
+        index = new ShopNameIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        index.init();
+        //用户输入的关键字：品牌、品牌+品类、商圈+门店号，以及名称中任意位置的2~6个字
+        queries = new String[1000];
+        for (int i = 0; i < queries.length; i++) {
+            String name = names.get((long) random.nextInt(SHOPS) + 1);
+            switch (i % 4) {
+                case 0:
+                    queries[i] = pick(random, BRANDS);
+                    break;
+                case 1:
+                    queries[i] = pick(random, BRANDS) + pick(random, CATEGORIES);
+                    break;
+                case 2:
+                    queries[i] = pick(random, AREAS) + (random.nextInt(20) + 1) + "号";
+                    break;
+                default:
+                    int begin = random.nextInt(name.length() - 2);
+                    queries[i] = name.substring(begin, Math.min(name.length(), begin + 2 + random.nextInt(5)));
+            }
+        }
+    }
+
+    @Test
+    void indexVsLikeScan() throws Exception {
+        //归一化后的名称数组，相当于LIKE逐行比较
+        String[] normalized = names.values().stream().map(ShopNameIndex::normalize).toArray(String[]::new);
+        //命中超过1%商铺的宽泛关键字单独统计，索引要对大量结果排序
+        List<String> selective = new ArrayList<>(), broad = new ArrayList<>();
+        for (String q : queries) {
+            Set<Long> expected = like(normalized, q);
+            assertEquals(expected, new HashSet<>(index.search(q)), q);
+            (expected.size() > SHOPS / 100 ? broad : selective).add(q);
+        }
+        System.out.println(environment() + ", " + SHOPS + " shops, "
+                + selective.size() + " selective / " + broad.size() + " broad keywords");
+        double[] selectiveCost = compare(normalized, selective, "selective");
+        double[] broadCost = compare(normalized, broad, "broad");
+        //内存中逐行匹配是LIKE全表扫描耗时的下限，索引还要负责排序。
+        //常见关键字索引应快3倍以上；宽泛关键字结果集很大，排序后也不应比逐行匹配慢太多
+        assertTrue(selectiveCost[0] * 3 < selectiveCost[1], "selective: index " + selectiveCost[0] + "us, scan " + selectiveCost[1] + "us");
+        assertTrue(broadCost[0] < broadCost[1] * 1.5, "broad: index " + broadCost[0] + "us, scan " + broadCost[1] + "us");
+    }
+
+    //返回索引和逐行匹配的平均耗时
+    private double[] compare(String[] normalized, List<String> keywords, String name) throws Exception {
+        int rounds = keywords.size() * 3;
+        double search = averageMicros(keywords.size(), rounds, i -> index.search(keywords.get(i % keywords.size())));
+        double scan = averageMicros(keywords.size(), rounds, i -> like(normalized, keywords.get(i % keywords.size())));
+        report("n-gram index search, ranked, " + name, search);
+        report("in-memory LIKE scan, " + name, scan);
+        return new double[]{search, scan};
+    }
+
+    @Test
+    void indexVsSqlLike() throws Exception {
+        try (Connection connection = mysql()) {
+            //临时表只在当前连接可见，name列与tb_shop相同
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMPORARY TABLE bench_shop (id BIGINT PRIMARY KEY, "
+                        + "name VARCHAR(128) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL)");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench_shop VALUES (?, ?)")) {
+                for (Map.Entry<Long, String> entry : names.entrySet()) {
+                    insert.setLong(1, entry.getKey());
+                    insert.setString(2, entry.getValue());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM bench_shop WHERE name LIKE ?")) {
+                int rounds = 100;
+                for (int i = 0; i < rounds; i++) {
+                    assertEquals(sql(select, queries[i]), new HashSet<>(index.search(queries[i])), queries[i]);
+                }
+                double search = averageMicros(rounds, rounds, i -> index.search(queries[i]));
+                double db = averageMicros(rounds, rounds, i -> sql(select, queries[i]));
+                System.out.println(environment() + ", " + SHOPS + " shops");
+                report("n-gram index search (ranked)", search);
+                report("mysql LIKE '%kw%'", db);
+                assertTrue(search * 10 < db, "index " + search + "us, mysql " + db + "us");
+            }
+        }
+    }
+
+    private static Set<Long> like(String[] normalized, String keyword) {
+        String q = ShopNameIndex.normalize(keyword);
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < normalized.length; i++) {
+            if (normalized[i].contains(q)) {
+                ids.add(i + 1L);
+            }
+        }
+        return ids;
+    }
+
+    private static Set<Long> sql(PreparedStatement select, String keyword) throws Exception {
+        select.setString(1, "%" + keyword + "%");
+        Set<Long> ids = new HashSet<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+        }
+        return ids;
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
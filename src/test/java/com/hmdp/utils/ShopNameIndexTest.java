@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopNameIndexTest {
+    private ShopNameIndex index;
+    private Map<Long, String> shops;
+
+    @BeforeEach
+    void setUp() {
+        //hmdp.sql中的部分商铺名称，包含中文、英文大小写和全角括号
+        shops = new LinkedHashMap<>();
+        shops.put(1L, "103茶餐厅");
+        shops.put(2L, "蔡馬洪涛烤肉·老北京铜锅涮羊肉");
+        shops.put(3L, "新白鹿餐厅(运河上街店)");
+        shops.put(4L, "Mamala(杭州远洋乐堤港店)");
+        shops.put(5L, "海底捞火锅(水晶城购物中心店)");
+        shops.put(6L, "幸福里老北京涮锅（丝联店）");
+        shops.put(7L, "炉鱼(拱墅万达广场店)");
+        shops.put(8L, "星聚会KTV(拱墅区万达店)");
+        shops.put(9L, "开乐迪KTV（运河上街店）");
+        shops.put(10L, "INLOVE KTV(水晶城店)");
+        shops.put(11L, "茶餐厅");
+        shops.put(12L, "茶餐");
+        index = new ShopNameIndex();
+        shops.forEach(index::put);
+    }
+
+    @Test
+    void searchMatchesSubstringScan() {
+        String[] keywords = {"茶餐厅", "老北京", "KTV", "ktv", "运河上街", "（丝联店）", "火锅", "万达", "店", "餐", "不存在"};
+        for (String keyword : keywords) {
+            assertEquals(scan(keyword), new HashSet<>(index.search(keyword)), keyword);
+        }
+    }
+
+    @Test
+    void searchIsCaseAndWidthInsensitive() {
+        assertEquals(index.search("KTV"), index.search("ktv"));
+        assertEquals(index.search("ＫＴＶ"), index.search("ktv"));
+        //全角括号与半角括号归一化后相同
+        assertEquals(new HashSet<>(Arrays.asList(3L, 9L)), new HashSet<>(index.search("(运河上街")));
+        assertEquals(new HashSet<>(Arrays.asList(3L, 9L)), new HashSet<>(index.search("（运河上街")));
+        assertEquals(Collections.singletonList(10L), index.search("inlove ktv"));
+    }
+
+    @Test
+    void searchFiltersNonContiguousBigrams() {
+        //abxbc包含ab、bc两个二元组，但不包含abc
+        index.put(100L, "abxbc");
+        index.put(101L, "xabcx");
+        assertEquals(Collections.singletonList(101L), index.search("abc"));
+    }
+
+    @Test
+    void searchRanksByMatchQuality() {
+        //完全相同 > 前缀匹配 > 匹配位置靠前
+        assertEquals(Arrays.asList(12L, 11L, 1L), index.search("茶餐"));
+        assertEquals(Arrays.asList(11L, 1L), index.search("茶餐厅"));
+        //前缀匹配时名称短的靠前，匹配位置相同时id小的靠前
+        index.put(13L, "xx茶");
+        index.put(14L, "yy茶");
+        List<Long> result = index.search("茶");
+        assertEquals(Arrays.asList(12L, 11L, 13L, 14L, 1L), result);
+    }
+
+    @Test
+    void putRenamesAndRemoveDeletes() {
+        index.put(1L, "103烧腊");
+        assertFalse(index.search("茶餐厅").contains(1L));
+        assertEquals(Collections.singletonList(1L), index.search("烧腊"));
+
+        index.remove(1L);
+        index.remove(1L);
+        assertTrue(index.search("烧腊").isEmpty());
+        assertTrue(index.search("103").isEmpty());
+    }
+
+    @Test
+    void loadReplacesIndexWithDatabase() {
+        //其他实例新增、改名、删除了商铺，本实例没有收到通知
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(Arrays.asList(
+                new Shop().setId(1L).setName("103烧腊"),
+                new Shop().setId(11L).setName("茶餐厅"),
+                new Shop().setId(20L).setName("新开的茶餐厅"),
+                new Shop().setId(21L)));
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        index.reload();
+
+        assertEquals(Arrays.asList(11L, 20L), index.search("茶餐厅"));
+        assertEquals(Collections.singletonList(1L), index.search("烧腊"));
+        assertTrue(index.search("KTV").isEmpty());
+        //重新加载后的增量更新基于新的索引
+        index.put(21L, "茶餐厅二号");
+        assertEquals(Arrays.asList(11L, 21L, 20L), index.search("茶餐厅"));
+    }
+
+    @Test
+    void blankKeywordReturnsNothing() {
+        assertTrue(index.search(null).isEmpty());
+        assertTrue(index.search("").isEmpty());
+        assertTrue(index.search("  ").isEmpty());
+    }
+
+    //与 name LIKE '%kw%' 等价的全量扫描
+    private Set<Long> scan(String keyword) {
+        String q = ShopNameIndex.normalize(keyword);
+        return shops.entrySet().stream()
+                .filter(e -> ShopNameIndex.normalize(e.getValue()).contains(q))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+}
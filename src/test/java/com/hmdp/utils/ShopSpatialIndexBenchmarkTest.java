@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.BenchmarkSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * 网格空间索引与按经纬度范围过滤（SQL bounding box）的附近商铺查询对比
+ */
+@Tag("benchmark")
+class ShopSpatialIndexBenchmarkTest {
+    //10万个商铺、10个类型，均匀分布在约50公里见方的范围内
+    private static final int SHOPS = 100000, TYPES = 10;
+    private static final double MIN_X = 120.0, MIN_Y = 30.0, SPAN = 0.5;
+    private static final int K = 10;
+    private static final double RADIUS = 5000;
+    private static final double METERS_PER_DEGREE = Math.PI * 6371008.8 / 180;
+
+    private List<Shop> shops;
+    private ShopSpatialIndex index;
+    private double[][] queries;
+
+    @BeforeEach
+    void setUp() {
+        Random random = new Random(1);
+        shops = new ArrayList<>(SHOPS);
+        for (long id = 1; id <= SHOPS; id++) {
+            shops.add(new Shop().setId(id).setTypeId(id % TYPES + 1)
+                    .setX(MIN_X + random.nextDouble() * SPAN).setY(MIN_Y + random.nextDouble() * SPAN));
+        }
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(shops);
+        index = new ShopSpatialIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        index.init();
+        //每个查询：类型、经度、纬度
+        queries = new double[1000][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new double[]{random.nextInt(TYPES) + 1,
+                    MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN};
+        }
+    }
+
+    @Test
+    void gridVsBoundingBoxScan() throws Exception {
+        //按类型分组的数组，相当于走type_id索引后逐行判断经纬度范围
+        Map<Long, List<Shop>> byType = shops.stream().collect(Collectors.groupingBy(Shop::getTypeId));
+        for (double[] q : queries) {
+            assertEquals(boundingBox(byType.get((long) q[0]), q[1], q[2]), ids(nearest(q)));
+        }
+        double grid = averageMicros(queries.length, queries.length * 10, i -> nearest(queries[i % queries.length]));
+        double scan = averageMicros(queries.length, queries.length * 10, i -> {
+            double[] q = queries[i % queries.length];
+            boundingBox(byType.get((long) q[0]), q[1], q[2]);
+        });
+        System.out.println(environment() + ", " + SHOPS + " shops, " + TYPES + " types, k = " + K + ", radius = " + RADIUS);
+        report("grid nearest", grid);
+        report("in-memory bounding box scan", scan);
+        //内存中的范围过滤是SQL路径耗时的下限，没有网络和解析开销，网格索引仍应快5倍以上
+        assertTrue(grid * 5 < scan, "grid " + grid + "us, scan " + scan + "us");
+    }
+
+    @Test
+    void gridVsSqlBoundingBox() throws Exception {
+        try (Connection connection = mysql()) {
+            //临时表只在当前连接可见，结构与tb_shop相同的列和type_id索引
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TEMPORARY TABLE bench_shop (id BIGINT PRIMARY KEY, type_id BIGINT NOT NULL, "
+                        + "x DOUBLE NOT NULL, y DOUBLE NOT NULL, INDEX foreign_key_type (type_id))");
+            }
+            try (PreparedStatement insert = connection.prepareStatement("INSERT INTO bench_shop VALUES (?, ?, ?, ?)")) {
+                for (Shop shop : shops) {
+                    insert.setLong(1, shop.getId());
+                    insert.setLong(2, shop.getTypeId());
+                    insert.setDouble(3, shop.getX());
+                    insert.setDouble(4, shop.getY());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id, x, y FROM bench_shop WHERE type_id = ? AND x BETWEEN ? AND ? AND y BETWEEN ? AND ?")) {
+                int rounds = 200;
+                for (int i = 0; i < rounds; i++) {
+                    assertEquals(sql(select, queries[i]), ids(nearest(queries[i])));
+                }
+                double grid = averageMicros(rounds, rounds, i -> nearest(queries[i]));
+                double db = averageMicros(rounds, rounds, i -> sql(select, queries[i]));
+                System.out.println(environment() + ", " + SHOPS + " shops, " + TYPES + " types, k = " + K + ", radius = " + RADIUS);
+                report("grid nearest", grid);
+                report("mysql bounding box", db);
+                assertTrue(grid * 10 < db, "grid " + grid + "us, mysql " + db + "us");
+            }
+        }
+    }
+
+    private List<SpatialGridIndex.Hit> nearest(double[] q) {
+        return index.nearest((long) q[0], q[1], q[2], K, RADIUS);
+    }
+
+    //经纬度范围内的商铺按距离排序后取前K个
+    private static List<Long> boundingBox(List<Shop> candidates, double x, double y) {
+        double[] box = box(x, y);
+        List<SpatialGridIndex.Hit> hits = new ArrayList<>();
+        for (Shop shop : candidates) {
+            if (shop.getX() >= box[0] && shop.getX() <= box[1] && shop.getY() >= box[2] && shop.getY() <= box[3]) {
+                addHit(hits, shop.getId(), x, y, shop.getX(), shop.getY());
+            }
+        }
+        return topK(hits);
+    }
+
+    private static List<Long> sql(PreparedStatement select, double[] q) throws Exception {
+        double[] box = box(q[1], q[2]);
+        select.setLong(1, (long) q[0]);
+        select.setDouble(2, box[0]);
+        select.setDouble(3, box[1]);
+        select.setDouble(4, box[2]);
+        select.setDouble(5, box[3]);
+        List<SpatialGridIndex.Hit> hits = new ArrayList<>();
+        try (ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                addHit(hits, rs.getLong(1), q[1], q[2], rs.getDouble(2), rs.getDouble(3));
+            }
+        }
+        return topK(hits);
+    }
+
+    //minX, maxX, minY, maxY
+    private static double[] box(double x, double y) {
+        double dy = RADIUS / METERS_PER_DEGREE;
+        double dx = dy / Math.cos(Math.toRadians(y));
+        return new double[]{x - dx, x + dx, y - dy, y + dy};
+    }
+
+    private static void addHit(List<SpatialGridIndex.Hit> hits, long id, double x, double y, double shopX, double shopY) {
+        double distance = SpatialGridIndex.distance(x, y, shopX, shopY);
+        if (distance <= RADIUS) {
+            hits.add(new SpatialGridIndex.Hit(id, distance));
+        }
+    }
+
+    private static List<Long> topK(List<SpatialGridIndex.Hit> hits) {
+        hits.sort(Comparator.comparingDouble(SpatialGridIndex.Hit::getDistance));
+        return ids(hits.subList(0, Math.min(K, hits.size())));
+    }
+
+    private static List<Long> ids(List<SpatialGridIndex.Hit> hits) {
+        return hits.stream().map(SpatialGridIndex.Hit::getId).collect(Collectors.toList());
+    }
+}
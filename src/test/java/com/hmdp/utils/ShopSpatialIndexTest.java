@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopSpatialIndexTest {
+    private static final double RADIUS = 5000;
+
+    private ShopMapper shopMapper;
+    private ShopSpatialIndex index;
+
+    @BeforeEach
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(Arrays.asList(
+                shop(1L, 1L, 120.149, 30.318),
+                shop(2L, 1L, 120.151, 30.320),
+                shop(3L, 2L, 120.150, 30.319),
+                new Shop().setId(4L).setTypeId(1L)));
+        index = new ShopSpatialIndex();
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        index.init();
+    }
+
+    @Test
+    void loadGroupsShopsByType() {
+        assertEquals(Arrays.asList(1L, 2L), ids(index.nearest(1L, 120.149, 30.318, 10, RADIUS)));
+        assertEquals(Collections.singletonList(3L), ids(index.within(2L, 120.15, 30.319, RADIUS)));
+        assertTrue(index.nearest(9L, 120.15, 30.319, 10, RADIUS).isEmpty());
+    }
+
+    @Test
+    void putMovesShopBetweenTypes() {
+        index.put(shop(2L, 2L, 120.151, 30.320));
+        assertEquals(Collections.singletonList(1L), ids(index.nearest(1L, 120.15, 30.319, 10, RADIUS)));
+        assertEquals(new HashSet<>(Arrays.asList(2L, 3L)), new HashSet<>(ids(index.within(2L, 120.15, 30.319, RADIUS))));
+
+        index.remove(2L);
+        assertEquals(Collections.singletonList(3L), ids(index.within(2L, 120.15, 30.319, RADIUS)));
+    }
+
+    @Test
+    void reloadReplacesIndexWithDatabase() {
+        //其他实例移动、删除了商铺，本实例没有收到通知
+        when(shopMapper.selectList(any())).thenReturn(Arrays.asList(
+                shop(1L, 2L, 120.149, 30.318),
+                shop(5L, 1L, 120.150, 30.319)));
+        index.reload();
+
+        assertEquals(Collections.singletonList(5L), ids(index.within(1L, 120.15, 30.319, RADIUS)));
+        assertEquals(Collections.singletonList(1L), ids(index.within(2L, 120.15, 30.319, RADIUS)));
+        //重新加载后的增量更新基于新的索引
+        index.put(shop(3L, 1L, 120.1501, 30.3191));
+        assertEquals(Arrays.asList(3L, 5L), ids(index.nearest(1L, 120.1501, 30.3191, 10, RADIUS)));
+    }
+
+    private static Shop shop(Long id, Long typeId, double x, double y) {
+        return new Shop().setId(id).setTypeId(typeId).setX(x).setY(y);
+    }
+
+    private static List<Long> ids(List<SpatialGridIndex.Hit> hits) {
+        return hits.stream().map(SpatialGridIndex.Hit::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import cn.hutool.extra.pinyin.PinyinUtil;
+import com.hmdp.dto.ShopSuggestDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ShopSuggestIndexTest {
+    private ShopSuggestIndex index;
+    private Map<Long, Shop> shops;
+
+    @BeforeEach
+    void setUp() {
+        index = new ShopSuggestIndex();
+        shops = new HashMap<>();
+        put(1L, "茶餐厅", 100, 40);
+        put(2L, "茶颜悦色", 1000, 45);
+        put(3L, "查理烤肉", 10, 30);
+        put(4L, "KTV欢唱", 500, 40);
+        put(5L, "开乐迪KTV", 300, 42);
+        //超过TOP_K个同名前缀的商铺，销量不同
+        for (long id = 10; id < 25; id++) {
+            put(id, "烤肉" + id, (int) id * 7 % 23, 40);
+        }
+    }
+
+    @Test
+    void suggestByNameAndPinyin() {
+        assertEquals(Arrays.asList(2L, 1L), ids(index.suggest("茶", 10)));
+        //全拼：茶、查都是cha
+        assertEquals(Arrays.asList(2L, 1L, 3L), ids(index.suggest("cha", 10)));
+        //拼音首字母
+        assertEquals(Collections.singletonList(1L), ids(index.suggest("cct", 10)));
+        //大小写、全角不影响
+        assertEquals(ids(index.suggest("ktv", 10)), ids(index.suggest("ＫＴＶ", 10)));
+        assertEquals("茶颜悦色", index.suggest("茶颜", 1).get(0).getName());
+    }
+
+    @Test
+    void suggestMatchesBruteForce() {
+        Set<String> prefixes = new TreeSet<>();
+        for (Shop shop : shops.values()) {
+            for (String key : keysOf(shop.getName())) {
+                for (int end = 1; end <= key.length(); end++) {
+                    prefixes.add(key.substring(0, end));
+                }
+            }
+        }
+        prefixes.add("不存在");
+        //覆盖提前计算的短前缀和查询时计算的长前缀
+        for (String prefix : prefixes) {
+            assertEquals(bruteForce(prefix), ids(index.suggest(prefix, ShopSuggestIndex.TOP_K)), prefix);
+        }
+    }
+
+    @Test
+    void suggestLimitsResults() {
+        assertEquals(ShopSuggestIndex.TOP_K, index.suggest("烤", 100).size());
+        assertEquals(3, index.suggest("烤", 3).size());
+        assertEquals(bruteForce("烤").subList(0, 3), ids(index.suggest("烤", 3)));
+        assertTrue(index.suggest("烤", 0).isEmpty());
+        assertTrue(index.suggest("", 10).isEmpty());
+        assertTrue(index.suggest(null, 10).isEmpty());
+    }
+
+    @Test
+    void putUpdatesWeightAndName() {
+        //销量增加后排到前面，短前缀的结果也要更新
+        put(3L, "查理烤肉", 100000, 50);
+        assertEquals(3L, index.suggest("c", 1).get(0).getId());
+        assertEquals(3L, index.suggest("cha", 1).get(0).getId());
+        //改名后旧名称不再联想
+        put(1L, "小茶馆", 100, 40);
+        assertEquals(Collections.singletonList(2L), ids(index.suggest("茶", 10)));
+        assertEquals(Collections.singletonList(1L), ids(index.suggest("xcg", 10)));
+        assertEquals("小茶馆", index.suggest("小茶", 1).get(0).getName());
+        assertSuggestMatchesBruteForce("茶", "小", "cha", "x", "c");
+    }
+
+    @Test
+    void removeDeletesAllKeys() {
+        index.remove(2L);
+        index.remove(2L);
+        shops.remove(2L);
+        assertEquals(Collections.singletonList(1L), ids(index.suggest("茶", 10)));
+        assertTrue(index.suggest("chay", 10).isEmpty());
+        assertTrue(index.suggest("cyys", 10).isEmpty());
+        assertSuggestMatchesBruteForce("茶", "c", "ch", "cha");
+    }
+
+    @Test
+    void reloadRebuildsFromDatabase() {
+        //其他实例新增、改名、删除了商铺，本实例没有收到通知
+        shops.clear();
+        List<Shop> rows = Arrays.asList(
+                new Shop().setId(1L).setName("小茶馆").setSold(100).setScore(40),
+                new Shop().setId(2L).setName("茶颜悦色").setSold(1000).setScore(45),
+                new Shop().setId(30L).setName("茶百道").setSold(5000).setScore(42));
+        rows.forEach(shop -> shops.put(shop.getId(), shop));
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        when(shopMapper.selectList(any())).thenReturn(rows);
+        ReflectionTestUtils.setField(index, "shopMapper", shopMapper);
+        index.reload();
+
+        assertEquals(Arrays.asList(30L, 2L), ids(index.suggest("茶", 10)));
+        assertEquals("茶百道", index.suggest("茶百", 1).get(0).getName());
+        assertTrue(index.suggest("ktv", 10).isEmpty());
+        assertTrue(index.suggest("烤", 10).isEmpty());
+        assertSuggestMatchesBruteForce("茶", "c", "ch", "cha", "x", "xcg");
+        //重新加载后的增量更新基于新的快照
+        put(1L, "茶馆", 100, 40);
+        assertSuggestMatchesBruteForce("茶", "c", "cha", "x");
+    }
+
+    private void assertSuggestMatchesBruteForce(String... prefixes) {
+        for (String prefix : prefixes) {
+            assertEquals(bruteForce(prefix), ids(index.suggest(prefix, ShopSuggestIndex.TOP_K)), prefix);
+        }
+    }
+
+    private void put(long id, String name, int sold, int score) {
+        Shop shop = new Shop().setId(id).setName(name).setSold(sold).setScore(score);
+        shops.put(id, shop);
+        index.put(shop);
+    }
+
+    //任一联想词以前缀开头的商铺，按权重倒序、id升序取前K个
+    private List<Long> bruteForce(String prefix) {
+        String p = ShopNameIndex.normalize(prefix);
+        return shops.values().stream()
+                .filter(shop -> keysOf(shop.getName()).stream().anyMatch(key -> key.startsWith(p)))
+                .sorted(Comparator.comparingDouble(ShopSuggestIndexTest::weightOf).reversed()
+                        .thenComparingLong(Shop::getId))
+                .limit(ShopSuggestIndex.TOP_K)
+                .map(Shop::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static Set<String> keysOf(String name) {
+        return Stream.of(name, PinyinUtil.getPinyin(name, ""), PinyinUtil.getFirstLetter(name, ""))
+                .map(ShopNameIndex::normalize)
+                .filter(key -> !key.isEmpty())
+                .collect(Collectors.toSet());
+    }
+
+    private static double weightOf(Shop shop) {
+        return (shop.getScore() + 1) * Math.log1p(shop.getSold());
+    }
+
+    private static List<Long> ids(List<ShopSuggestDTO> suggestions) {
+        return suggestions.stream().map(ShopSuggestDTO::getId).collect(Collectors.toList());
+    }
+}
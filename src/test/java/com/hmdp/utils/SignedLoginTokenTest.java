@@ -0,0 +1,116 @@
+package com.hmdp.utils;
+
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.RegisteredPayload;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.listener.Topic;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKED_CHANNEL;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class SignedLoginTokenTest {
+    private SignedLoginToken signedLoginToken;
+    private ZSetOperations<String, String> zSetOperations;
+    private MessageListener listener;
+    //redis中的吊销列表
+    private final Set<String> revokedIds = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSetOperations = mock(ZSetOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(zSetOperations.range(anyString(), anyLong(), anyLong())).thenAnswer(invocation -> new HashSet<>(revokedIds));
+        when(zSetOperations.score(anyString(), any())).thenAnswer(invocation ->
+                revokedIds.contains(invocation.getArgument(1)) ? 1.0 : null);
+        RedisMessageListenerContainer container = mock(RedisMessageListenerContainer.class);
+        doAnswer(invocation -> listener = invocation.getArgument(0))
+                .when(container).addMessageListener(any(MessageListener.class), any(Topic.class));
+        signedLoginToken = new SignedLoginToken();
+        ReflectionTestUtils.setField(signedLoginToken, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(signedLoginToken, "redisMessageListenerContainer", container);
+        ReflectionTestUtils.setField(signedLoginToken, "mode", "signed");
+        ReflectionTestUtils.setField(signedLoginToken, "secret", "test-secret");
+        ReflectionTestUtils.setField(signedLoginToken, "revokedCapacity", 100000);
+        signedLoginToken.init();
+    }
+
+    @Test
+    void revokedTokenIsRejected() {
+        String token = signedLoginToken.issue(user(1L));
+        String other = signedLoginToken.issue(user(2L));
+        assertEquals(1L, signedLoginToken.verify(token).getId());
+
+        revokedIds.add(jwtId(token));
+        signedLoginToken.revoke(token);
+        assertNull(signedLoginToken.verify(token));
+        assertEquals(2L, signedLoginToken.verify(other).getId());
+        //重建后仍然有效
+        signedLoginToken.syncRevoked();
+        assertNull(signedLoginToken.verify(token));
+    }
+
+    @Test
+    void revocationsFromOtherInstancesSeenWhileVerifying() throws Exception {
+        List<String> tokens = new ArrayList<>();
+        for (long id = 1; id <= 2000; id++) {
+            tokens.add(signedLoginToken.issue(user(id)));
+        }
+        //其他实例登出的通知与验签并发执行，通知处理完之后每个令牌都必须被拒绝
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch published = new CountDownLatch(1);
+            Future<?> publisher = pool.submit(() -> {
+                for (String token : tokens) {
+                    revokedIds.add(jwtId(token));
+                    listener.onMessage(new DefaultMessage(LOGIN_REVOKED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                            jwtId(token).getBytes(StandardCharsets.UTF_8)), null);
+                }
+                published.countDown();
+            });
+            List<Future<?>> verifiers = new ArrayList<>();
+            for (int t = 0; t < 3; t++) {
+                verifiers.add(pool.submit(() -> {
+                    while (published.getCount() > 0) {
+                        tokens.forEach(signedLoginToken::verify);
+                    }
+                }));
+            }
+            publisher.get(30, TimeUnit.SECONDS);
+            for (Future<?> verifier : verifiers) {
+                verifier.get(30, TimeUnit.SECONDS);
+            }
+            for (String token : tokens) {
+                assertNull(signedLoginToken.verify(token));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static UserDTO user(long id) {
+        UserDTO user = new UserDTO();
+        user.setId(id);
+        user.setNickName("user_" + id);
+        return user;
+    }
+
+    private static String jwtId(String token) {
+        return (String) JWT.of(token).getPayload(RegisteredPayload.JWT_ID);
+    }
+}
@@ -0,0 +1,158 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpatialGridIndexTest {
+    private static final int POINTS = 2000;
+    private static final double RADIUS = 3000;
+
+    private SpatialGridIndex index;
+    //id -> {x, y}
+    private Map<Long, double[]> points;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        index = new SpatialGridIndex(0.01);
+        points = new HashMap<>();
+        random = new Random(1);
+        for (long id = 1; id <= POINTS; id++) {
+            //在杭州拱墅区附近随机取点，每10个点中有1个与上一个点重合，制造距离相同的点
+            double[] p = id % 10 == 0 ? points.get(id - 1) : randomPoint();
+            points.put(id, p);
+            index.put(id, p[0], p[1]);
+        }
+    }
+
+    @Test
+    void withinMatchesBruteForce() {
+        for (int i = 0; i < 100; i++) {
+            double[] q = randomPoint();
+            List<SpatialGridIndex.Hit> hits = index.within(q[0], q[1], RADIUS);
+            assertEquals(bruteForce(q, RADIUS), ids(hits));
+            assertSorted(hits);
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForce() {
+        for (int i = 0; i < 100; i++) {
+            double[] q = randomPoint();
+            List<SpatialGridIndex.Hit> hits = index.nearest(q[0], q[1], 10, RADIUS);
+            List<Double> expected = bruteForceDistances(q, RADIUS);
+            assertEquals(expected.subList(0, Math.min(10, expected.size())), distances(hits));
+            assertSorted(hits);
+        }
+    }
+
+    @Test
+    void nearestRespectsMaxRadius() {
+        //离所有点都很远的位置
+        List<SpatialGridIndex.Hit> hits = index.nearest(121.5, 31.2, 10, RADIUS);
+        assertTrue(hits.isEmpty());
+        assertTrue(index.nearest(120.14, 30.32, 0, RADIUS).isEmpty());
+    }
+
+    @Test
+    void nearestWithCursorPagesThroughAllPointsOnce() {
+        for (int i = 0; i < 20; i++) {
+            double[] q = randomPoint();
+            //与ShopServiceImpl的距离游标相同：记录上一页最后的距离，以及该距离上已经返回的id
+            double after = -1;
+            Set<Long> excluded = new HashSet<>();
+            List<Long> all = new ArrayList<>();
+            List<Double> allDistances = new ArrayList<>();
+            while (true) {
+                List<SpatialGridIndex.Hit> page = index.nearest(q[0], q[1], 7, RADIUS, after, excluded);
+                if (page.isEmpty()) {
+                    break;
+                }
+                double last = page.get(page.size() - 1).getDistance();
+                if (last != after) {
+                    excluded.clear();
+                }
+                for (SpatialGridIndex.Hit hit : page) {
+                    all.add(hit.getId());
+                    allDistances.add(hit.getDistance());
+                    if (hit.getDistance() == last) {
+                        excluded.add(hit.getId());
+                    }
+                }
+                after = last;
+            }
+            assertEquals(all.size(), new HashSet<>(all).size(), "分页结果不能重复");
+            assertEquals(bruteForce(q, RADIUS), new HashSet<>(all), "分页结果不能遗漏");
+            assertEquals(bruteForceDistances(q, RADIUS), allDistances);
+        }
+    }
+
+    @Test
+    void putMovesAndRemoveDeletes() {
+        index.put(1L, 130.0, 40.0);
+        index.remove(2L);
+        index.remove(2L);
+        points.put(1L, new double[]{130.0, 40.0});
+        points.remove(2L);
+        assertEquals(POINTS - 1, index.size());
+
+        List<SpatialGridIndex.Hit> moved = index.nearest(130.0, 40.0, 5, RADIUS);
+        assertEquals(1, moved.size());
+        assertEquals(1L, moved.get(0).getId());
+        assertEquals(0, moved.get(0).getDistance(), 1e-9);
+        //删除时最后一个点移动到空位，其余点的结果不受影响
+        for (int i = 0; i < 50; i++) {
+            double[] q = randomPoint();
+            assertEquals(bruteForce(q, RADIUS), ids(index.within(q[0], q[1], RADIUS)));
+        }
+    }
+
+    @Test
+    void distanceIsHaversine() {
+        assertEquals(0, SpatialGridIndex.distance(120.15, 30.3, 120.15, 30.3), 1e-9);
+        //纬度相差1度约111.2公里
+        assertEquals(111195, SpatialGridIndex.distance(120, 30, 120, 31), 1);
+        assertEquals(SpatialGridIndex.distance(120.1, 30.2, 120.3, 30.4),
+                SpatialGridIndex.distance(120.3, 30.4, 120.1, 30.2), 1e-9);
+    }
+
+    private double[] randomPoint() {
+        return new double[]{120.12 + random.nextDouble() * 0.05, 30.30 + random.nextDouble() * 0.05};
+    }
+
+    private Set<Long> bruteForce(double[] q, double radius) {
+        return points.entrySet().stream()
+                .filter(e -> SpatialGridIndex.distance(q[0], q[1], e.getValue()[0], e.getValue()[1]) <= radius)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private List<Double> bruteForceDistances(double[] q, double radius) {
+        return points.values().stream()
+                .map(p -> SpatialGridIndex.distance(q[0], q[1], p[0], p[1]))
+                .filter(d -> d <= radius)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static Set<Long> ids(List<SpatialGridIndex.Hit> hits) {
+        Set<Long> ids = hits.stream().map(SpatialGridIndex.Hit::getId).collect(Collectors.toSet());
+        assertEquals(hits.size(), ids.size());
+        return ids;
+    }
+
+    private static List<Double> distances(List<SpatialGridIndex.Hit> hits) {
+        return hits.stream().map(SpatialGridIndex.Hit::getDistance).collect(Collectors.toList());
+    }
+
+    private static void assertSorted(List<SpatialGridIndex.Hit> hits) {
+        for (int i = 1; i < hits.size(); i++) {
+            assertTrue(hits.get(i - 1).getDistance() <= hits.get(i).getDistance());
+        }
+    }
+}
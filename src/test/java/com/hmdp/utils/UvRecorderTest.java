@@ -0,0 +1,275 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.UvReportDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.invocation.Invocation;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.HyperLogLogOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@SuppressWarnings("unchecked")
+class UvRecorderTest {
+    //与application.yaml中的redis配置相同，连接不上时跳过误差测试
+    private static final String REDIS_HOST = "127.0.0.1";
+    private static final int REDIS_PORT = 6379;
+    private static final String REDIS_PASSWORD = "123456";
+
+    private StringRedisTemplate stringRedisTemplate;
+    private StringRedisConnection connection;
+    private UvRecorder recorder;
+    private String day;
+
+    @BeforeEach
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        connection = mock(StringRedisConnection.class);
+        //在mock的连接上执行pipeline中的命令
+        doAnswer(invocation -> {
+            invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+            return Collections.emptyList();
+        }).when(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+        recorder = new UvRecorder();
+        ReflectionTestUtils.setField(recorder, "stringRedisTemplate", stringRedisTemplate);
+        ReflectionTestUtils.setField(recorder, "dailyTtlDays", 40L);
+        day = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    }
+
+    @Test
+    void flushDedupsLocallyInOnePipeline() {
+        recorder.recordSite("u1");
+        recorder.recordSite("u1");
+        recorder.recordSite("ip10.0.0.1");
+        recorder.recordShop(1L, "u1");
+        recorder.recordShop(1L, "u2");
+        recorder.recordShop(2L, "u1");
+        recorder.flush();
+
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+        Map<String, Set<String>> pfAdds = writes("pfAdd");
+        assertEquals(3, pfAdds.size());
+        assertEquals(set("u1", "ip10.0.0.1"), pfAdds.get(UV_SITE_KEY + day));
+        assertEquals(set("u1", "u2"), pfAdds.get(UV_SHOP_KEY + "1:" + day));
+        assertEquals(set("u1"), pfAdds.get(UV_SHOP_KEY + "2:" + day));
+        assertEquals(Collections.singletonMap(UV_SHOPS_KEY + day, set("1", "2")), writes("sAdd"));
+        verify(connection, times(4)).expire(anyString(), eq(40L * 24 * 3600));
+
+        //缓冲区已清空，没有新访客时不访问redis
+        recorder.flush();
+        verify(stringRedisTemplate, times(1)).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void flushKeepsVisitorsWhenRedisFails() {
+        doThrow(new RedisConnectionFailureException("down"))
+                .doAnswer(invocation -> {
+                    invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+                    return Collections.emptyList();
+                })
+                .when(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+        recorder.recordSite("u1");
+        recorder.flush();
+        verifyNoInteractions(connection);
+
+        recorder.recordSite("u2");
+        recorder.flush();
+        assertEquals(Collections.singletonMap(UV_SITE_KEY + day, set("u1", "u2")), writes("pfAdd"));
+    }
+
+    @Test
+    void rollupMergesEveryDayNotRolledUp() {
+        ReflectionTestUtils.setField(recorder, "dailyTtlDays", 5L);
+        ReflectionTestUtils.setField(recorder, "monthlyTtlDays", 400L);
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        RLock lock = mock(RLock.class);
+        when(redissonClient.getLock(LOCK_UV_ROLLUP_KEY)).thenReturn(lock);
+        when(lock.tryLock()).thenReturn(true);
+        ReflectionTestUtils.setField(recorder, "redissonClient", redissonClient);
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        HyperLogLogOperations<String, String> hyperLogLogOperations = mock(HyperLogLogOperations.class);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        when(stringRedisTemplate.opsForHyperLogLog()).thenReturn(hyperLogLogOperations);
+        LocalDate today = LocalDate.now();
+        //前天已合并；定时任务漏掉了4天前、3天前，更早的日期已经过了保留期
+        String rolled = dayOf(today, 2), stale = dayOf(today, 9);
+        when(setOperations.members(UV_ROLLED_KEY)).thenReturn(set(rolled, stale));
+        when(setOperations.members(UV_SHOPS_KEY + dayOf(today, 4))).thenReturn(set("1"));
+
+        recorder.rollup();
+
+        for (int back : new int[]{4, 3, 1}) {
+            LocalDate day = today.minusDays(back);
+            String month = day.format(DateTimeFormatter.ofPattern("yyyyMM"));
+            verify(hyperLogLogOperations).union(UV_SITE_KEY + month, UV_SITE_KEY + dayOf(today, back));
+            verify(setOperations).add(UV_ROLLED_KEY, dayOf(today, back));
+        }
+        verify(hyperLogLogOperations, never()).union(anyString(), eq(UV_SITE_KEY + rolled));
+        verify(hyperLogLogOperations, never()).union(anyString(), eq(UV_SITE_KEY + dayOf(today, 5)));
+        verify(connection).pfMerge(UV_SHOP_KEY + "1:" + today.minusDays(4).format(DateTimeFormatter.ofPattern("yyyyMM")),
+                UV_SHOP_KEY + "1:" + dayOf(today, 4));
+        verify(setOperations).remove(UV_ROLLED_KEY, stale);
+        verify(lock).unlock();
+    }
+
+    @Test
+    void reportUnionsMonthWithDaysNotRolledUp() {
+        SetOperations<String, String> setOperations = mock(SetOperations.class);
+        when(stringRedisTemplate.opsForSet()).thenReturn(setOperations);
+        YearMonth month = YearMonth.of(2020, 2);
+        //2号没有合并
+        when(setOperations.members(UV_ROLLED_KEY)).thenReturn(set("20200201", "20200203"));
+        List<Object> counts = new ArrayList<>();
+        for (int d = 1; d <= 30; d++) {
+            counts.add((long) d);
+        }
+        doAnswer(invocation -> {
+            invocation.<RedisCallback<?>>getArgument(0).doInRedis(connection);
+            return counts;
+        }).when(stringRedisTemplate).executePipelined(any(RedisCallback.class));
+
+        UvReportDTO report = recorder.siteReport(month);
+        assertEquals(29, report.getDaily().size());
+        assertEquals(30L, report.getTotal());
+        //当月key + 没有合并的日期，已经合并的1号、3号不重复计算
+        List<String> keys = new ArrayList<>();
+        keys.add(UV_SITE_KEY + "202002");
+        for (int d = 2; d <= 29; d++) {
+            if (d != 3) {
+                keys.add(UV_SITE_KEY + month.atDay(d).format(DateTimeFormatter.ofPattern("yyyyMMdd")));
+            }
+        }
+        verify(connection).pfCount(keys.toArray(new String[0]));
+    }
+
+    @Test
+    void visitorOfPrefersLoggedInUser() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.1.2.3");
+        assertEquals("ip10.1.2.3", UvRecorder.visitorOf(request));
+        UserDTO user = new UserDTO();
+        user.setId(42L);
+        UserHolder.saveUser(user);
+        try {
+            assertEquals("u42", UvRecorder.visitorOf(request));
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+
+    @Test
+    void hyperLogLogErrorWithinTwoPercent() {
+        LettuceConnectionFactory factory = connect();
+        StringRedisTemplate redis = new StringRedisTemplate(factory);
+        //100万个模拟访客分两天写入，第二天与第一天有一半重复，验证单日和PFMERGE合并后的误差
+        int users = 1000000, batchSize = 1000;
+        String day1 = "test:uv:day1", day2 = "test:uv:day2", month = "test:uv:month";
+        try {
+            redis.delete(Arrays.asList(day1, day2, month));
+            add(redis, day1, 0, users, batchSize);
+            add(redis, day2, users / 2, users + users / 2, batchSize);
+            redis.opsForHyperLogLog().union(month, day1, day2);
+            assertErrorWithin(users, redis.opsForHyperLogLog().size(day1));
+            assertErrorWithin(users, redis.opsForHyperLogLog().size(day2));
+            assertErrorWithin(users + users / 2, redis.opsForHyperLogLog().size(month));
+            //PFCOUNT多个key与PFMERGE后的结果相同
+            assertEquals(redis.opsForHyperLogLog().size(month), redis.opsForHyperLogLog().size(day1, day2));
+            //与UvRecorder注释中记录的离线结果对照
+            System.out.println("redis day1 = " + redis.opsForHyperLogLog().size(day1) + ", day2 = "
+                    + redis.opsForHyperLogLog().size(day2) + ", merged = " + redis.opsForHyperLogLog().size(month));
+        } finally {
+            redis.delete(Arrays.asList(day1, day2, month));
+            factory.destroy();
+        }
+    }
+
+    @Test
+    void hyperLogLogModelErrorWithinTwoPercent() {
+        //与上面相同的访客，用redis HyperLogLog的Java移植计算，没有redis时也能测量误差
+        int users = 1000000;
+        HyperLogLogModel day1 = model(0, users), day2 = model(users / 2, users + users / 2), month = new HyperLogLogModel();
+        month.merge(day1);
+        month.merge(day2);
+        System.out.println("day1 = " + day1.count() + ", day2 = " + day2.count() + ", merged = " + month.count());
+        assertErrorWithin(users, day1.count());
+        assertErrorWithin(users, day2.count());
+        assertErrorWithin(users + users / 2, month.count());
+    }
+
+    private static HyperLogLogModel model(int from, int to) {
+        HyperLogLogModel model = new HyperLogLogModel();
+        for (int i = from; i < to; i++) {
+            model.add("u" + i);
+        }
+        return model;
+    }
+
+    private static LettuceConnectionFactory connect() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(REDIS_HOST, REDIS_PORT);
+        config.setPassword(REDIS_PASSWORD);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(config);
+        factory.afterPropertiesSet();
+        try {
+            factory.getConnection().close();
+        } catch (RuntimeException e) {
+            factory.destroy();
+            assumeTrue(false, "redis不可用：" + e.getMessage());
+        }
+        return factory;
+    }
+
+    private static void add(StringRedisTemplate redis, String key, int from, int to, int batchSize) {
+        String[] batch = new String[batchSize];
+        for (int i = from; i < to; i += batchSize) {
+            for (int j = 0; j < batchSize; j++) {
+                batch[j] = "u" + (i + j);
+            }
+            redis.opsForHyperLogLog().add(key, batch);
+        }
+    }
+
+    private static void assertErrorWithin(long expected, long actual) {
+        double error = Math.abs(actual - expected) / (double) expected;
+        assertTrue(error < 0.02, "expected " + expected + ", actual " + actual + ", error " + error);
+    }
+
+    //pipeline中某个命令写入的 key -> 成员
+    private Map<String, Set<String>> writes(String command) {
+        Map<String, Set<String>> writes = new HashMap<>();
+        for (Invocation invocation : mockingDetails(connection).getInvocations()) {
+            if (invocation.getMethod().getName().equals(command)) {
+                Object[] args = invocation.getRawArguments();
+                writes.computeIfAbsent((String) args[0], k -> new HashSet<>()).addAll(Arrays.asList((String[]) args[1]));
+            }
+        }
+        return writes;
+    }
+
+    private static String dayOf(LocalDate today, int back) {
+        return today.minusDays(back).format(DateTimeFormatter.ofPattern("yyyyMMdd"));
+    }
+
+    private static Set<String> set(String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+}
@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ZSetScrollTest {
+
+    @Test
+    void mergePagesThroughTiesWithoutDuplicates() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            //分数只有5种取值，大量元素分数相同；同一个元素可能同时出现在多个ZSET中，分数相同
+            Map<String, Double> all = new HashMap<>();
+            List<Map<String, Double>> zsets = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                zsets.add(new HashMap<>());
+            }
+            for (int i = 0; i < 60; i++) {
+                String member = String.valueOf(random.nextInt(1000));
+                double score = random.nextInt(5);
+                all.putIfAbsent(member, score);
+                int copies = 1 + random.nextInt(3);
+                for (int c = 0; c < copies; c++) {
+                    zsets.get(random.nextInt(zsets.size())).put(member, all.get(member));
+                }
+            }
+            int count = 1 + random.nextInt(6);
+            assertEquals(sorted(all), scrollAll(zsets, count), "count = " + count);
+        }
+    }
+
+    @Test
+    void wholePageWithSameScoreKeepsOffset() {
+        Map<String, Double> a = new HashMap<>();
+        Map<String, Double> b = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            a.put("a" + i, 100.0);
+            b.put("b" + i, 100.0);
+        }
+        b.put("a3", 100.0);
+        b.put("z", 50.0);
+        List<Map<String, Double>> zsets = Arrays.asList(a, b);
+
+        ZSetScroll first = ZSetScroll.merge(fetch(zsets, Double.POSITIVE_INFINITY, 0, 3), Double.POSITIVE_INFINITY, 0, 3);
+        assertEquals(100.0, first.getMin());
+        assertEquals(3, first.getOffset());
+        ZSetScroll second = ZSetScroll.merge(fetch(zsets, 100.0, 3, 3), 100.0, 3, 3);
+        //整页分数都等于max，offset在上一页的基础上累加
+        assertEquals(100.0, second.getMin());
+        assertEquals(6, second.getOffset());
+
+        Map<String, Double> union = new HashMap<>(a);
+        union.putAll(b);
+        assertEquals(sorted(union), scrollAll(zsets, 3));
+    }
+
+    @Test
+    void newMembersDuringScrollAreNotRepeated() {
+        Map<String, Double> a = new HashMap<>();
+        Map<String, Double> b = new HashMap<>();
+        for (int i = 0; i < 8; i++) {
+            a.put("a" + i, (double) i);
+            b.put("b" + i, (double) i);
+        }
+        List<Map<String, Double>> zsets = Arrays.asList(a, b);
+        Map<String, Double> expected = new HashMap<>(a);
+        expected.putAll(b);
+
+        List<String> members = new ArrayList<>();
+        double max = Double.POSITIVE_INFINITY;
+        int offset = 0;
+        while (true) {
+            ZSetScroll page = ZSetScroll.merge(fetch(zsets, max, offset, 3), max, offset, 3);
+            if (page.getMembers().isEmpty()) {
+                break;
+            }
+            members.addAll(page.getMembers());
+            max = page.getMin();
+            offset = page.getOffset();
+            //翻页期间写入新元素，分数比已返回的都大，按下标分页时会让后面的元素重复出现
+            a.put("new" + members.size(), 100.0 + members.size());
+        }
+        assertEquals(sorted(expected), members);
+    }
+
+    @Test
+    void emptySourcesReturnEmptyPage() {
+        ZSetScroll page = ZSetScroll.merge(Arrays.asList(Collections.emptyList(), Collections.emptyList()), 10.0, 2, 5);
+        assertTrue(page.getMembers().isEmpty());
+        //没有数据时游标不变
+        assertEquals(10.0, page.getMin());
+        assertEquals(2, page.getOffset());
+        assertTrue(ZSetScroll.merge(Collections.emptyList(), Double.POSITIVE_INFINITY, 0, 5).getMembers().isEmpty());
+    }
+
+    //按max和offset一页页读完，与BlogFeed的调用方式相同
+    private static List<String> scrollAll(List<Map<String, Double>> zsets, int count) {
+        List<String> members = new ArrayList<>();
+        double max = Double.POSITIVE_INFINITY;
+        int offset = 0;
+        while (true) {
+            ZSetScroll page = ZSetScroll.merge(fetch(zsets, max, offset, count), max, offset, count);
+            if (page.getMembers().isEmpty()) {
+                return members;
+            }
+            assertTrue(page.getMembers().size() <= count);
+            assertEquals(page.getMembers().size(), page.getScores().size());
+            members.addAll(page.getMembers());
+            max = page.getMin();
+            offset = page.getOffset();
+        }
+    }
+
+    //模拟 ZREVRANGEBYSCORE key max -inf WITHSCORES LIMIT 0 offset+count
+    private static List<List<ZSetOperations.TypedTuple<String>>> fetch(List<Map<String, Double>> zsets, double max, int offset, int count) {
+        List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(zsets.size());
+        for (Map<String, Double> zset : zsets) {
+            Map<String, Double> inRange = zset.entrySet().stream()
+                    .filter(e -> e.getValue() <= max)
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+            sources.add(sorted(inRange).stream()
+                    .limit(offset + count)
+                    .map(member -> (ZSetOperations.TypedTuple<String>) new DefaultTypedTuple<>(member, zset.get(member)))
+                    .collect(Collectors.toList()));
+        }
+        return sources;
+    }
+
+    //redis中ZSET倒序的顺序：分数倒序，分数相同时元素倒序
+    private static List<String> sorted(Map<String, Double> zset) {
+        return zset.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.<String, Double>comparingByKey().reversed()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+}